@@ -0,0 +1,25 @@
+package uk.ac.ebi.pride.utilities.quality.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of the benchmarks jar: runs the JMH benchmarks selected in the command line (all of them by default)
+ * with the GC profiler, so the allocation rate is reported together with the throughput. The command line accepts
+ * the usual JMH options.
+ *
+ * @author ypriverol
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,100 @@
+package uk.ac.ebi.pride.utilities.quality.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.AATagFinder;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.Complementarity;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.CrossCorrFeature;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureCalculator;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureSchema;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureVector;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.GeneralFeatures;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.IsotopeSignalNoise;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.NeutralLosses;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.OldSignalNoise;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.TripleChargedComplementarity;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.XXArea;
+import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of every FeatureCalculator on a synthetic spectrum, by peak count and precursor charge. The calculators
+ * are run on all the peaks of the spectrum and write their features in a FeatureVector of their own features.
+ *
+ * @author ypriverol
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeatureCalculatorBenchmark {
+
+    @Param({"AATagFinder", "Complementarity", "TripleChargedComplementarity", "NeutralLosses", "CrossCorrFeature",
+            "GeneralFeatures", "XXArea", "IsotopeSignalNoise", "OldSignalNoise"})
+    public String calculator;
+
+    @Param({"50", "200", "1000", "5000", "20000"})
+    public int peakCount;
+
+    @Param({"1", "2", "3"})
+    public int charge;
+
+    private FeatureCalculator featureCalculator;
+
+    private PeakList peaks;
+
+    private FeatureVector features;
+
+    @Setup
+    public void setUp() {
+        featureCalculator = getCalculator(calculator);
+        peaks = SyntheticSpectra.create(peakCount, charge, 42);
+        SpectrumFeatureType[] featureTypes = featureCalculator.getFeatureTypes().toArray(new SpectrumFeatureType[0]);
+        int[] subsets = new int[featureTypes.length];
+        Arrays.fill(subsets, 1);
+        features = new FeatureVector(new FeatureSchema(subsets, featureTypes, new ProcessingType[featureTypes.length]));
+    }
+
+    @Benchmark
+    public double[] computeFeature() {
+        featureCalculator.computeFeature(peaks, charge, features, 1);
+        return features.getValues();
+    }
+
+    static FeatureCalculator getCalculator(String name) {
+        if ("AATagFinder".equals(name))
+            return AATagFinder.getInstance();
+        if ("Complementarity".equals(name))
+            return Complementarity.getInstance();
+        if ("TripleChargedComplementarity".equals(name))
+            return TripleChargedComplementarity.getInstance();
+        if ("NeutralLosses".equals(name))
+            return NeutralLosses.getInstance();
+        if ("CrossCorrFeature".equals(name))
+            return CrossCorrFeature.getInstance();
+        if ("GeneralFeatures".equals(name))
+            return GeneralFeatures.getInstance();
+        if ("XXArea".equals(name))
+            return XXArea.getInstance();
+        if ("IsotopeSignalNoise".equals(name))
+            return IsotopeSignalNoise.getInstance();
+        if ("OldSignalNoise".equals(name))
+            return new OldSignalNoise();
+        throw new IllegalArgumentException("Unknown feature calculator: " + name);
+    }
+}
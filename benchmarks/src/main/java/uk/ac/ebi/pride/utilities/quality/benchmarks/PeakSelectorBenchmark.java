@@ -0,0 +1,86 @@
+package uk.ac.ebi.pride.utilities.quality.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.AllPeaks;
+import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.DominantPeaks;
+import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.DominantPeaksPerDalton;
+import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.IsotopePeaks;
+import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.NoisePeaks;
+import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.NoisePeaksByInterval;
+import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.NonNoisePeaks;
+import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.NonNoisePeaks3;
+import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.PeakSelector;
+import uk.ac.ebi.pride.utilities.quality.utils.Constants;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of every PeakSelector on a synthetic spectrum, by peak count. The selectors do not depend on the
+ * precursor charge, so the spectrum is always the one of a doubly charged precursor. The selectors use the
+ * parameters of SpectrumFeatureGenerator where they are used there.
+ *
+ * @author ypriverol
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeakSelectorBenchmark {
+
+    private static final int CHARGE = 2;
+
+    @Param({"AllPeaks", "DominantPeaks", "DominantPeaksPerDalton", "IsotopePeaks", "NoisePeaks",
+            "NoisePeaksByInterval", "NonNoisePeaks", "NonNoisePeaks3"})
+    public String selector;
+
+    @Param({"50", "200", "1000", "5000", "20000"})
+    public int peakCount;
+
+    private PeakSelector peakSelector;
+
+    private PeakList peaks;
+
+    @Setup
+    public void setUp() {
+        peakSelector = getSelector(selector);
+        peaks = SyntheticSpectra.create(peakCount, CHARGE, 42);
+    }
+
+    @Benchmark
+    public PeakList transform() {
+        return peakSelector.transform(peaks);
+    }
+
+    static PeakSelector getSelector(String name) {
+        if ("AllPeaks".equals(name))
+            return new AllPeaks();
+        if ("DominantPeaks".equals(name))
+            return new DominantPeaks();
+        if ("DominantPeaksPerDalton".equals(name))
+            return new DominantPeaksPerDalton();
+        if ("IsotopePeaks".equals(name))
+            return new IsotopePeaks(IsotopePeaks.DEFAULT_SIMILARITY_SCORE_CUTOFF, false, true);
+        if ("NoisePeaks".equals(name))
+            return new NoisePeaks(2, 2);
+        if ("NoisePeaksByInterval".equals(name))
+            return new NoisePeaksByInterval(5, 70, Constants.maxPeaksPer1000Da);
+        if ("NonNoisePeaks".equals(name))
+            return new NonNoisePeaks(2, 2);
+        if ("NonNoisePeaks3".equals(name))
+            return new NonNoisePeaks3(5, 70, Constants.maxPeaksPer1000Da);
+        throw new IllegalArgumentException("Unknown peak selector: " + name);
+    }
+}
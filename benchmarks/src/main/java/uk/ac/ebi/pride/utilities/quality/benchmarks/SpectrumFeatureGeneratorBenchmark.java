@@ -0,0 +1,70 @@
+package uk.ac.ebi.pride.utilities.quality.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeaturePlan;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureVector;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.SpectrumFeatureGenerator;
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of SpectrumFeatureGenerator computing all the features of a synthetic spectrum, with every peak list
+ * subset, by peak count and precursor charge. The features are returned as nested maps and written in a reused
+ * FeatureVector.
+ *
+ * @author ypriverol
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpectrumFeatureGeneratorBenchmark {
+
+    @Param({"50", "200", "1000", "5000", "20000"})
+    public int peakCount;
+
+    @Param({"1", "2", "3"})
+    public int charge;
+
+    private SpectrumFeatureGenerator generator;
+
+    private PeakList peaks;
+
+    private FeaturePlan plan;
+
+    private FeatureVector features;
+
+    @Setup
+    public void setUp() {
+        generator = SpectrumFeatureGenerator.getInstance();
+        peaks = SyntheticSpectra.create(peakCount, charge, 42);
+        plan = generator.createPlan(null, null);
+        features = new FeatureVector(plan.getSchema());
+    }
+
+    @Benchmark
+    public Map<Integer, Map<SpectrumFeatureType, Object>> computeAllFeatures() {
+        return generator.computeFeatureForPeakList(peaks, charge);
+    }
+
+    @Benchmark
+    public double[] computeAllFeatureVector() {
+        generator.computeFeatureVector(peaks, charge, plan, features);
+        return features.getValues();
+    }
+}
@@ -0,0 +1,81 @@
+package uk.ac.ebi.pride.utilities.quality.benchmarks;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.SpectrumUtils;
+
+import java.util.Random;
+
+/**
+ * Deterministic synthetic MS/MS spectra for the benchmarks. Every spectrum has a precursor, pairs of complementary
+ * b/y fragments with isotope peaks, and noise peaks, so every calculator and selector has real work to do. The same
+ * seed, peak count and charge always give the same spectrum.
+ *
+ * @author ypriverol
+ */
+public final class SyntheticSpectra {
+
+    private static final double PROTON = 1.007276;
+
+    private static final double NEUTRON = 1.003355;
+
+    private static final double WATER = 18.010565;
+
+    /**
+     * Fraction of the peaks that are fragments and their isotopes, the rest are noise.
+     */
+    private static final double SIGNAL_FRACTION = 0.4;
+
+    private SyntheticSpectra() {
+    }
+
+    /**
+     * @param peakCount number of peaks
+     * @param charge precursor charge, at least 1
+     * @param seed seed of the random numbers
+     * @return PeakList sorted by m/z
+     */
+    public static PeakList create(int peakCount, int charge, long seed) {
+        Random random = new Random(seed);
+        int z = Math.max(1, charge);
+        double precursorMz = 400 + random.nextDouble() * 800;
+        double precursorMass = (precursorMz - PROTON) * z;
+        double maxMz = Math.max(2000, precursorMass);
+
+        double[] mz = new double[peakCount];
+        double[] intensity = new double[peakCount];
+        int count = 0;
+
+        int signalPeaks = (int) (peakCount * SIGNAL_FRACTION);
+        while (count < signalPeaks) {
+            // complementary b and y fragments, singly charged, each one with up to two isotope peaks
+            double b = 100 + random.nextDouble() * Math.max(1, precursorMass - 200);
+            double y = precursorMass + WATER - b;
+            double height = Math.exp(5 + random.nextGaussian());
+            for (double fragment : new double[]{b + PROTON, y + PROTON}) {
+                for (int isotope = 0; isotope < 3 && count < signalPeaks; isotope++) {
+                    mz[count] = fragment + isotope * NEUTRON;
+                    intensity[count] = height / (1 + isotope * 2);
+                    count++;
+                }
+            }
+        }
+        while (count < peakCount) {
+            mz[count] = 100 + random.nextDouble() * (maxMz - 100);
+            intensity[count] = Math.exp(3 + random.nextGaussian());
+            count++;
+        }
+
+        return sortByMz(mz, intensity, precursorMz);
+    }
+
+    private static PeakList sortByMz(double[] mz, double[] intensity, double precursorMz) {
+        int[] order = SpectrumUtils.argsort(mz, false);
+        double[] sortedMz = new double[mz.length];
+        double[] sortedIntensity = new double[mz.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedMz[i] = mz[order[i]];
+            sortedIntensity[i] = intensity[order[i]];
+        }
+        return new PeakList(sortedMz, sortedIntensity, precursorMz);
+    }
+}
@@ -1,13 +1,44 @@
 package uk.ac.ebi.pride.utilities.quality.cli;
 
 import org.apache.commons.cli.*;
+import uk.ac.ebi.pride.utilities.data.controller.DataAccessUtilities;
+import uk.ac.ebi.pride.utilities.data.controller.impl.ControllerImpl.MzIdentMLControllerImpl;
+import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.io.ColumnarFeatureWriter;
+import uk.ac.ebi.pride.utilities.quality.io.FeatureStore;
+import uk.ac.ebi.pride.utilities.quality.io.FeatureTableWriter;
+import uk.ac.ebi.pride.utilities.quality.io.IndexedMgfReader;
+import uk.ac.ebi.pride.utilities.quality.io.MgfFeaturePipeline;
+import uk.ac.ebi.pride.utilities.quality.io.SpectrumRecord;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeaturePlan;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureSchema;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureVector;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.SpectrumFeatureGenerator;
 import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
 import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Define a set of properties to be run and compute them, this is important due the research an computational
  * time. It is interesting to run some particular features rather than all of them.
  *
+ * The spectra are read one at a time from the input and their row is written to the output as soon as the
+ * features are computed, so the memory used does not depend on the size of the input file. The MGF input is
+ * memory mapped and its index of spectra is saved next to it, see IndexedMgfReader, and its spectra can be
+ * scored by several threads (-threads) keeping the order of the rows, see MgfFeaturePipeline. The features can be
+ * cached in a file (-featureCache), so the spectra already scored in a previous run are not scored again, see
+ * FeatureStore.
+ *
  */
 public class QSpectraCLI {
 
@@ -28,6 +59,10 @@ public class QSpectraCLI {
 
         options.addOption("out", "output",true,"tab separated file output");
 
+        options.addOption("outColumnar", "output-columnar", true, "binary columnar file output");
+
+        options.addOption("appendColumnar", false, "append the rows to an existing binary columnar file");
+
         options.addOption("inClusterMgf","input-cluster-mgf", true, "input file");
 
         options.addOption("inMzid", "in-mzid", true, "mzindetml input file");
@@ -35,16 +70,22 @@ public class QSpectraCLI {
         options.addOption("inRelatedSpectra", true, "spectra related with mzid file");
 
         options.addOption("allFeatures", false, "compute all features for each spectra");
+
+        options.addOption("threads", true, "number of threads used to compute the features of the MGF input, 1 by default");
+
+        options.addOption("featureCache", "feature-cache", true, "file where the features of the spectra are cached between runs, always with the same selected features");
     }
 
-    public static void main(String[] args) throws ParseException {
+    public static void main(String[] args) throws ParseException, IOException {
 
         initOptions();
 
-        parse(args);
+        CommandLine cmd = parse(args);
+
+        run(cmd);
     }
 
-    public static void parse(String[] args){
+    public static CommandLine parse(String[] args){
 
         CommandLine cmd = null;
         CommandLineParser parser = new BasicParser();
@@ -60,6 +101,175 @@ public class QSpectraCLI {
         } catch (ParseException e) {
                 help(options);
         }
+        return cmd;
+    }
+
+    /**
+     * Compute the features of the input spectra and write them to the output table.
+     * @param cmd parsed command line
+     * @throws IOException
+     */
+    public static void run(CommandLine cmd) throws IOException {
+
+        SpectrumFeatureGenerator generator = SpectrumFeatureGenerator.getInstance();
+
+        Set<SpectrumFeatureType> featureTypes = getSelectedFeatures(cmd);
+        List<Integer> subsets = getSelectedSubsets(cmd, generator);
+
+        // only the selectors and calculators of the selected features are run
+        FeaturePlan plan = generator.createPlan(featureTypes, subsets);
+        if(plan.isEmpty())
+            throw new IllegalArgumentException("None of the selected features is computed on the selected peak list subsets");
+
+        String[] leadingColumns = cmd.hasOption("inClusterMgf") ? new String[]{"id"} : new String[]{"id", "identified"};
+
+        // the outputs are opened inside the try, so the ones already opened are closed if another one fails; the
+        // table is written last, so its file is not created when the columnar file or the cache can not be opened
+        boolean standardOutput = !cmd.hasOption("out");
+        FeatureTableWriter writer = null;
+        ColumnarFeatureWriter columnarWriter = null;
+        FeatureStore store = null;
+        try{
+            if(cmd.hasOption("featureCache"))
+                store = new FeatureStore(new File(cmd.getOptionValue("featureCache")), plan.getSchema(), SpectrumFeatureGenerator.FEATURE_VERSION);
+            if(cmd.hasOption("outColumnar")){
+                FeatureSchema schema = generator.createSchema(plan, featureTypes);
+                columnarWriter = new ColumnarFeatureWriter(new File(cmd.getOptionValue("outColumnar")), leadingColumns, schema, cmd.hasOption("appendColumnar"));
+            }
+            // the table is written to the standard output when no other output is given
+            if(cmd.hasOption("out") || !cmd.hasOption("outColumnar")){
+                OutputStream out = standardOutput ? System.out : new FileOutputStream(cmd.getOptionValue("out"));
+                writer = new FeatureTableWriter(new OutputStreamWriter(out, "UTF-8"), leadingColumns, featureTypes, subsets);
+            }
+
+            if(cmd.hasOption("inClusterMgf"))
+                computeMgf(cmd, generator, plan, writer, columnarWriter, store);
+            else
+                computeMzid(cmd, generator, plan, writer, columnarWriter, store);
+        }finally {
+            close(writer, standardOutput, columnarWriter, store);
+        }
+    }
+
+    private static void computeMgf(CommandLine cmd, SpectrumFeatureGenerator generator, FeaturePlan plan, final FeatureTableWriter writer, final ColumnarFeatureWriter columnarWriter, FeatureStore store) throws IOException {
+        IndexedMgfReader reader = new IndexedMgfReader(new File(cmd.getOptionValue("inClusterMgf")));
+        try{
+            // the spectra are parsed and scored in parallel chunks, the rows are written in the order of the file
+            MgfFeaturePipeline pipeline = new MgfFeaturePipeline(generator, plan, getThreads(cmd));
+            pipeline.setFeatureStore(store);
+            pipeline.run(reader, new MgfFeaturePipeline.RowHandler() {
+                @Override
+                public void handle(SpectrumRecord spectrum, FeatureVector features) throws IOException {
+                    write(writer, columnarWriter, new String[]{spectrum.getId()}, features);
+                }
+            });
+        }finally {
+            reader.close();
+        }
+    }
+
+    private static void computeMzid(CommandLine cmd, SpectrumFeatureGenerator generator, FeaturePlan plan, FeatureTableWriter writer, ColumnarFeatureWriter columnarWriter, FeatureStore store) throws IOException {
+        MzIdentMLControllerImpl controller = new MzIdentMLControllerImpl(new File(cmd.getOptionValue("inMzid")), false);
+        try{
+            // the same vector is reused for all the spectra
+            FeatureVector features = new FeatureVector(plan.getSchema());
+            if(cmd.hasOption("inRelatedSpectra")){
+                List<File> files = new ArrayList<File>();
+                for(String fileName: cmd.getOptionValue("inRelatedSpectra").split(","))
+                    files.add(new File(fileName.trim()));
+                controller.addMSController(files);
+            }
+            // the spectra are retrieved one by one from the controller, only the ids are kept in memory
+            for(Comparable id: controller.getSpectrumIds()){
+                Spectrum spectrum = controller.getSpectrumById(id);
+                if(spectrum == null || DataAccessUtilities.getMsLevel(spectrum) < 2 || spectrum.getPrecursors() == null)
+                    continue;
+                Integer charge = DataAccessUtilities.getPrecursorCharge(spectrum.getPrecursors());
+                if(store != null)
+                    store.computeFeatureVector(generator, plan, PeakList.fromSpectrum(spectrum), charge != null ? charge : 0, features);
+                else
+                    generator.computeFeatureVector(PeakList.fromSpectrum(spectrum), charge != null ? charge : 0, plan, features);
+                write(writer, columnarWriter, new String[]{id.toString(), String.valueOf(controller.isIdentifiedSpectrum(id))}, features);
+            }
+        }finally {
+            controller.close();
+        }
+    }
+
+    private static void write(FeatureTableWriter writer, ColumnarFeatureWriter columnarWriter, String[] leadingValues, FeatureVector features) throws IOException {
+        if(writer != null)
+            writer.write(leadingValues, features);
+        if(columnarWriter != null)
+            columnarWriter.write(leadingValues, features);
+    }
+
+    /**
+     * Close the outputs that have been opened, the standard output is only flushed.
+     */
+    private static void close(FeatureTableWriter writer, boolean standardOutput, ColumnarFeatureWriter columnarWriter, FeatureStore store) throws IOException {
+        try{
+            if(writer != null && standardOutput)
+                writer.flush();
+            else if(writer != null)
+                writer.close();
+        }finally {
+            try{
+                if(columnarWriter != null)
+                    columnarWriter.close();
+            }finally {
+                if(store != null)
+                    store.close();
+            }
+        }
+    }
+
+    /**
+     * The number of threads given in the command line, 1 by default.
+     */
+    private static int getThreads(CommandLine cmd){
+        if(!cmd.hasOption("threads"))
+            return 1;
+        try{
+            int threads = Integer.parseInt(cmd.getOptionValue("threads").trim());
+            if(threads < 1)
+                throw new IllegalArgumentException("The number of threads must be at least 1, found: " + threads);
+            return threads;
+        }catch (NumberFormatException e){
+            throw new IllegalArgumentException("Wrong number of threads: " + cmd.getOptionValue("threads"));
+        }
+    }
+
+    /**
+     * The features selected in the command line, null when all the features must be written.
+     */
+    private static Set<SpectrumFeatureType> getSelectedFeatures(CommandLine cmd){
+        if(cmd.hasOption("allFeatures"))
+            return null;
+        Set<SpectrumFeatureType> featureTypes = EnumSet.noneOf(SpectrumFeatureType.class);
+        for(SpectrumFeatureType feature: SpectrumFeatureType.values())
+            if(cmd.hasOption(feature.getCode()))
+                featureTypes.add(feature);
+        return featureTypes.isEmpty() ? null : featureTypes;
+    }
+
+    /**
+     * The peak list subsets built with the processing types selected in the command line, null when all of them must be written.
+     */
+    private static List<Integer> getSelectedSubsets(CommandLine cmd, SpectrumFeatureGenerator generator){
+        Set<ProcessingType> processingTypes = EnumSet.noneOf(ProcessingType.class);
+        for(ProcessingType processing: ProcessingType.values())
+            if(cmd.hasOption(processing.getCode()))
+                processingTypes.add(processing);
+        if(processingTypes.isEmpty())
+            return null;
+        List<Integer> subsets = new ArrayList<Integer>();
+        for(int subset = 1; subset <= generator.getFeatureCount(); subset++)
+            for(ProcessingType processing: processingTypes)
+                if(processing.getType() == generator.getSelector(subset).getClass())
+                    subsets.add(subset);
+        if(subsets.isEmpty())
+            throw new IllegalArgumentException("The selected processing types are not used to compute any feature: " + processingTypes);
+        return subsets;
     }
 
     /**
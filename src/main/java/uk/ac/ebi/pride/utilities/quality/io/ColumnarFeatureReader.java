@@ -0,0 +1,143 @@
+package uk.ac.ebi.pride.utilities.quality.io;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureSchema;
+import uk.ac.ebi.pride.utilities.quality.utils.PrideFeatureException;
+import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Read the files written by ColumnarFeatureWriter one row group at a time. The columns of the current row group
+ * are given as arrays of doubles, with NaN for the missing values.
+ *
+ * @author ypriverol
+ */
+public class ColumnarFeatureReader implements Closeable {
+
+    private final DataInputStream in;
+
+    private final String[] leadingColumns;
+
+    private final FeatureSchema schema;
+
+    private String[][] leadingValues;
+
+    private double[][] values;
+
+    private int rows = 0;
+
+    /**
+     * Open the file and read the header.
+     * @param file file written by ColumnarFeatureWriter
+     * @throws IOException
+     */
+    public ColumnarFeatureReader(File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            byte[] magic = new byte[ColumnarFeatureWriter.MAGIC.length()];
+            in.readFully(magic);
+            if (!ColumnarFeatureWriter.MAGIC.equals(new String(magic, "US-ASCII")))
+                throw new PrideFeatureException("The file " + file + " is not a columnar feature file");
+            int version = in.readInt();
+            if (version != ColumnarFeatureWriter.VERSION)
+                throw new PrideFeatureException("Unsupported version of the columnar feature file " + file + ": " + version);
+
+            leadingColumns = new String[in.readInt()];
+            for (int i = 0; i < leadingColumns.length; i++)
+                leadingColumns[i] = in.readUTF();
+
+            int columns = in.readInt();
+            int[] subsets = new int[columns];
+            ProcessingType[] processingTypes = new ProcessingType[columns];
+            SpectrumFeatureType[] featureTypes = new SpectrumFeatureType[columns];
+            for (int slot = 0; slot < columns; slot++) {
+                in.readUTF();
+                subsets[slot] = in.readInt();
+                processingTypes[slot] = getProcessingType(in.readUTF());
+                featureTypes[slot] = SpectrumFeatureType.valueOf(in.readUTF());
+            }
+            schema = new FeatureSchema(subsets, featureTypes, processingTypes);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        } catch (RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public String[] getLeadingColumns() {
+        return leadingColumns.clone();
+    }
+
+    public FeatureSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Read the next row group.
+     * @return false at the end of the file
+     * @throws IOException
+     */
+    public boolean nextRowGroup() throws IOException {
+        try {
+            rows = in.readInt();
+        } catch (EOFException e) {
+            rows = 0;
+            return false;
+        }
+        leadingValues = new String[leadingColumns.length][rows];
+        for (String[] column : leadingValues)
+            for (int row = 0; row < rows; row++)
+                column[row] = in.readUTF();
+        values = new double[schema.size()][rows];
+        for (int slot = 0; slot < schema.size(); slot++) {
+            double[] column = values[slot];
+            for (int row = 0; row < rows; row++)
+                column[row] = in.readDouble();
+        }
+        return true;
+    }
+
+    /**
+     * @return number of rows of the current row group
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @param column position of the leading column
+     * @param row row in the current row group
+     */
+    public String getLeadingValue(int column, int row) {
+        return leadingValues[column][row];
+    }
+
+    /**
+     * @param slot column of the schema
+     * @return the values of the column in the current row group
+     */
+    public double[] getColumn(int slot) {
+        return values[slot];
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private static ProcessingType getProcessingType(String code) {
+        for (ProcessingType processing : ProcessingType.values())
+            if (processing.getCode().equals(code))
+                return processing;
+        return null;
+    }
+}
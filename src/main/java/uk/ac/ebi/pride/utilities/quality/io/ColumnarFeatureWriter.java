@@ -0,0 +1,210 @@
+package uk.ac.ebi.pride.utilities.quality.io;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureSchema;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureVector;
+import uk.ac.ebi.pride.utilities.quality.utils.PrideFeatureException;
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Write the features of the spectra in a binary columnar file, so they can be loaded without parsing text. The rows
+ * are kept in memory until a row group is complete and then every column of the group is written as a block of
+ * doubles.
+ *
+ * The file starts with a header with the leading columns and the FeatureSchema of the features, followed by the
+ * row groups until the end of the file:
+ * <pre>
+ * header:    "QSCF" version:int leadingCount:int leadingName:UTF* columnCount:int column*
+ * column:    name:UTF subset:int processingCode:UTF featureName:UTF
+ * rowGroup:  rowCount:int leadingColumn* featureColumn*
+ * </pre>
+ * The leading columns of a row group are rowCount UTF strings and the feature columns rowCount doubles, the
+ * missing values are NaN.
+ *
+ * A file can be opened in append mode to add row groups to a file written before, the header of the file must
+ * describe the same columns.
+ *
+ * @author ypriverol
+ */
+public class ColumnarFeatureWriter implements Closeable {
+
+    static final String MAGIC = "QSCF";
+
+    static final int VERSION = 2;
+
+    public static final int DEFAULT_ROW_GROUP_SIZE = 4096;
+
+    private final DataOutputStream out;
+
+    private final String[] leadingColumns;
+
+    private final FeatureSchema schema;
+
+    private final int rowGroupSize;
+
+    private final String[][] leadingValues;
+
+    private final double[][] doubleValues;
+
+    private int rows = 0;
+
+    /**
+     * Schema of the last FeatureVector written and the slot of every column in it.
+     */
+    private FeatureSchema vectorSchema = null;
+
+    private int[] vectorSlots = null;
+
+    /**
+     * @param file output file
+     * @param leadingColumns name of the columns written before the features, the first one is the spectrum id
+     * @param schema features written to the file
+     * @param append true to add the rows at the end of an existing file with the same columns
+     * @throws IOException
+     */
+    public ColumnarFeatureWriter(File file, String[] leadingColumns, FeatureSchema schema, boolean append) throws IOException {
+        this(file, leadingColumns, schema, append, DEFAULT_ROW_GROUP_SIZE);
+    }
+
+    /**
+     * @param file output file
+     * @param leadingColumns name of the columns written before the features, the first one is the spectrum id
+     * @param schema features written to the file
+     * @param append true to add the rows at the end of an existing file with the same columns
+     * @param rowGroupSize number of rows of every row group
+     * @throws IOException
+     */
+    public ColumnarFeatureWriter(File file, String[] leadingColumns, FeatureSchema schema, boolean append, int rowGroupSize) throws IOException {
+        if (rowGroupSize < 1)
+            throw new IllegalArgumentException("Wrong row group size: " + rowGroupSize);
+        this.leadingColumns = leadingColumns.clone();
+        this.schema = schema;
+        this.rowGroupSize = rowGroupSize;
+
+        leadingValues = new String[leadingColumns.length][rowGroupSize];
+        doubleValues = new double[schema.size()][rowGroupSize];
+
+        boolean existing = append && file.exists() && file.length() > 0;
+        if (existing)
+            checkHeader(file);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, existing), 1 << 16));
+        if (!existing)
+            writeHeader();
+    }
+
+    /**
+     * Add the row of one spectrum, the row group is written when it is complete.
+     * @param leadingValues values of the leading columns
+     * @param features features of the spectrum by peak list subset
+     * @throws IOException
+     */
+    public void write(String[] leadingValues, Map<Integer, Map<SpectrumFeatureType, Object>> features) throws IOException {
+        if (leadingValues.length != leadingColumns.length)
+            throw new IllegalArgumentException("Expected " + leadingColumns.length + " leading values, found: " + leadingValues.length);
+        for (int i = 0; i < leadingValues.length; i++)
+            this.leadingValues[i][rows] = leadingValues[i];
+
+        for (int slot = 0; slot < schema.size(); slot++) {
+            Map<SpectrumFeatureType, Object> values = features.get(schema.getSubset(slot));
+            Object value = (values != null) ? values.get(schema.getFeatureType(slot)) : null;
+            if (!(value instanceof Number) && value != null)
+                throw new PrideFeatureException("The feature " + schema.getColumnName(slot) + " is not a number: " + value);
+            doubleValues[slot][rows] = (value != null) ? ((Number) value).doubleValue() : Double.NaN;
+        }
+
+        rows++;
+        if (rows == rowGroupSize)
+            writeRowGroup();
+    }
+
+    /**
+     * Add the row of one spectrum from its FeatureVector, the row group is written when it is complete. The
+     * features of the vector that are not in the schema of the file are not written.
+     * @param leadingValues values of the leading columns
+     * @param features features of the spectrum
+     * @throws IOException
+     */
+    public void write(String[] leadingValues, FeatureVector features) throws IOException {
+        if (leadingValues.length != leadingColumns.length)
+            throw new IllegalArgumentException("Expected " + leadingColumns.length + " leading values, found: " + leadingValues.length);
+        if (features.getSchema() != vectorSchema) {
+            vectorSlots = new int[schema.size()];
+            for (int slot = 0; slot < schema.size(); slot++)
+                vectorSlots[slot] = features.getSchema().getSlot(schema.getSubset(slot), schema.getFeatureType(slot));
+            vectorSchema = features.getSchema();
+        }
+        for (int i = 0; i < leadingValues.length; i++)
+            this.leadingValues[i][rows] = leadingValues[i];
+
+        for (int slot = 0; slot < schema.size(); slot++) {
+            doubleValues[slot][rows] = (vectorSlots[slot] != -1) ? features.get(vectorSlots[slot]) : Double.NaN;
+        }
+
+        rows++;
+        if (rows == rowGroupSize)
+            writeRowGroup();
+    }
+
+    /**
+     * Write the rows added so far as a row group, even if it is not complete.
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (rows > 0)
+            writeRowGroup();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeRowGroup() throws IOException {
+        out.writeInt(rows);
+        for (String[] column : leadingValues)
+            for (int row = 0; row < rows; row++)
+                out.writeUTF(column[row] != null ? column[row] : "");
+        for (double[] column : doubleValues)
+            for (int row = 0; row < rows; row++)
+                out.writeDouble(column[row]);
+        rows = 0;
+    }
+
+    private void writeHeader() throws IOException {
+        out.writeBytes(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(leadingColumns.length);
+        for (String column : leadingColumns)
+            out.writeUTF(column);
+        out.writeInt(schema.size());
+        for (int slot = 0; slot < schema.size(); slot++) {
+            out.writeUTF(schema.getColumnName(slot));
+            out.writeInt(schema.getSubset(slot));
+            out.writeUTF(schema.getProcessingType(slot) != null ? schema.getProcessingType(slot).getCode() : "");
+            out.writeUTF(schema.getFeatureType(slot).name());
+        }
+    }
+
+    private void checkHeader(File file) throws IOException {
+        ColumnarFeatureReader reader = new ColumnarFeatureReader(file);
+        try {
+            if (!Arrays.equals(reader.getLeadingColumns(), leadingColumns) || !reader.getSchema().equals(schema))
+                throw new PrideFeatureException("The columns of " + file + " are not the columns of the features written");
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package uk.ac.ebi.pride.utilities.quality.io;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeaturePlan;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureSchema;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureVector;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.SpectrumFeatureGenerator;
+import uk.ac.ebi.pride.utilities.quality.utils.PrideFeatureException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * On-disk cache of the features of the spectra, so the features of a spectrum already scored are read instead of
+ * computed again. Every spectrum is identified by the MD5 hash of its charge, precursor m/z and peaks.
+ *
+ * The features are kept in an append-only log: a header with the version of the features and the columns of the
+ * FeatureSchema, followed by one fixed size record per spectrum with its hash and its features as doubles. The
+ * position of every hash in the log is kept in memory in a compact hash table, which is saved when the store is
+ * closed (file name plus INDEX_EXTENSION) and completed with the records appended after it was saved.
+ *
+ * A store can only be opened with the version of the features and the columns it was written with, otherwise a
+ * PrideFeatureException is thrown and the store is left untouched. The methods of the store are thread safe.
+ *
+ * @author ypriverol
+ */
+public class FeatureStore implements Closeable {
+
+    public static final String INDEX_EXTENSION = ".idx";
+
+    private static final String MAGIC = "QSFS";
+
+    private static final String INDEX_MAGIC = "QSFI";
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int KEY_LENGTH = 16;
+
+    private final File file;
+
+    private final FeatureSchema schema;
+
+    private final RandomAccessFile log;
+
+    private final long dataStart;
+
+    private final int recordLength;
+
+    private final KeyIndex index;
+
+    private int records;
+
+    /**
+     * Open the store or create it if it does not exist.
+     * @param file log of the store
+     * @param schema columns of the features kept in the store
+     * @param version version of the features, see SpectrumFeatureGenerator.FEATURE_VERSION
+     * @throws IOException
+     * @throws PrideFeatureException if the file is not a feature store, or the store was written with another
+     * version of the features or other columns
+     */
+    public FeatureStore(File file, FeatureSchema schema, int version) throws IOException {
+        this.file = file;
+        this.schema = schema;
+        this.recordLength = KEY_LENGTH + 8 * schema.size();
+
+        byte[] header = createHeader(schema, version);
+        this.dataStart = header.length;
+        this.log = new RandomAccessFile(file, "rw");
+        try {
+            if (isNew(log, header)) {
+                // new store, or a store stopped while its header was written
+                log.setLength(0);
+                log.write(header);
+                getIndexFile(file).delete();
+            } else {
+                checkHeader(log, version);
+            }
+            // a record not complete, written when the process was stopped, is removed
+            records = (int) ((log.length() - dataStart) / recordLength);
+            log.setLength(dataStart + (long) records * recordLength);
+
+            index = new KeyIndex(Math.max(16, records));
+            int indexed = readIndex();
+            byte[] key = new byte[KEY_LENGTH];
+            for (int record = indexed; record < records; record++) {
+                readKey(record, key);
+                index.put(getLong(key, 0), getLong(key, 8), record);
+            }
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        } catch (RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the file where the index of a store is saved
+     */
+    public static File getIndexFile(File file) {
+        return new File(file.getPath() + INDEX_EXTENSION);
+    }
+
+    public FeatureSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return number of spectra in the store
+     */
+    public synchronized int size() {
+        return records;
+    }
+
+    /**
+     * Hash of the content of a spectrum.
+     * @param peaks PeakList of the spectrum
+     * @param charge precursor charge of the spectrum
+     * @return MD5 hash of the charge, the precursor m/z and the m/z and intensity of every peak
+     */
+    public static byte[] getKey(PeakList peaks, int charge) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new PrideFeatureException("MD5 is not supported", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(16 + 16 * Math.min(peaks.size(), 1024));
+        buffer.putInt(charge).putLong(Double.doubleToLongBits(peaks.getPrecursorMz())).putInt(peaks.size());
+        for (int i = 0; i < peaks.size(); i++) {
+            if (buffer.remaining() < 16) {
+                digest.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            buffer.putLong(Double.doubleToLongBits(peaks.getMz(i))).putLong(Double.doubleToLongBits(peaks.getIntensity(i)));
+        }
+        digest.update(buffer.array(), 0, buffer.position());
+        return digest.digest();
+    }
+
+    /**
+     * Read the features of a spectrum.
+     * @param key hash of the spectrum, see getKey
+     * @param features FeatureVector with the schema of the store
+     * @return false if the spectrum is not in the store
+     * @throws IOException
+     */
+    public synchronized boolean get(byte[] key, FeatureVector features) throws IOException {
+        checkSchema(features);
+        int record = index.get(getLong(key, 0), getLong(key, 8));
+        if (record < 0)
+            return false;
+        byte[] bytes = new byte[recordLength - KEY_LENGTH];
+        log.seek(dataStart + (long) record * recordLength + KEY_LENGTH);
+        log.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int slot = 0; slot < features.size(); slot++)
+            features.set(slot, buffer.getDouble());
+        return true;
+    }
+
+    /**
+     * Append the features of a spectrum, nothing is done if the spectrum is already in the store.
+     * @param key hash of the spectrum, see getKey
+     * @param features FeatureVector with the schema of the store
+     * @throws IOException
+     */
+    public synchronized void put(byte[] key, FeatureVector features) throws IOException {
+        checkSchema(features);
+        long hi = getLong(key, 0);
+        long lo = getLong(key, 8);
+        if (index.get(hi, lo) >= 0)
+            return;
+        ByteBuffer buffer = ByteBuffer.allocate(recordLength);
+        buffer.put(key, 0, KEY_LENGTH);
+        for (int slot = 0; slot < features.size(); slot++)
+            buffer.putDouble(features.get(slot));
+        log.seek(dataStart + (long) records * recordLength);
+        log.write(buffer.array());
+        index.put(hi, lo, records);
+        records++;
+    }
+
+    /**
+     * Read the features of a spectrum from the store, or compute them and add them to the store when the spectrum
+     * is not in it. The features are computed outside of the lock of the store, so it can be shared by several
+     * threads.
+     * @param generator SpectrumFeatureGenerator
+     * @param plan FeaturePlan with the schema of the store
+     * @param peaks PeakList of the spectrum
+     * @param charge precursor charge of the spectrum
+     * @param features FeatureVector with the schema of the store
+     * @throws IOException
+     */
+    public void computeFeatureVector(SpectrumFeatureGenerator generator, FeaturePlan plan, PeakList peaks, int charge, FeatureVector features) throws IOException {
+        byte[] key = getKey(peaks, charge);
+        if (get(key, features))
+            return;
+        generator.computeFeatureVector(peaks, charge, plan, features);
+        put(key, features);
+    }
+
+    /**
+     * Close the log and save the index.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            writeIndex(getIndexFile(file), index, records);
+        } finally {
+            log.close();
+        }
+    }
+
+    private void checkSchema(FeatureVector features) {
+        if (features.getSchema() != schema && !features.getSchema().equals(schema))
+            throw new IllegalArgumentException("The features do not have the schema of the store " + file);
+    }
+
+    private static byte[] createHeader(FeatureSchema schema, int version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBytes(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(version);
+        out.writeInt(schema.size());
+        for (int slot = 0; slot < schema.size(); slot++)
+            out.writeUTF(schema.getColumnName(slot));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return true for a new log: empty, or with only the beginning of the header
+     */
+    private static boolean isNew(RandomAccessFile log, byte[] header) throws IOException {
+        if (log.length() >= header.length)
+            return false;
+        byte[] existing = new byte[(int) log.length()];
+        log.seek(0);
+        log.readFully(existing);
+        return Arrays.equals(existing, Arrays.copyOf(header, existing.length));
+    }
+
+    /**
+     * Check the header of an existing log. A file that ends before its header does, or whose column names are
+     * not valid, is not a feature store.
+     */
+    private void checkHeader(RandomAccessFile log, int version) throws IOException {
+        try {
+            log.seek(0);
+            byte[] magic = new byte[MAGIC.length()];
+            log.readFully(magic);
+            if (!MAGIC.equals(new String(magic, "US-ASCII")))
+                throw new PrideFeatureException(file + " is not a feature store");
+            int formatVersion = log.readInt();
+            if (formatVersion != FORMAT_VERSION)
+                throw new PrideFeatureException("Unsupported version of the feature store " + file + ": " + formatVersion);
+            int featureVersion = log.readInt();
+            if (featureVersion != version)
+                throw new PrideFeatureException("The features of " + file + " were computed with the version " + featureVersion + " of the features, not " + version);
+            boolean sameColumns = log.readInt() == schema.size();
+            for (int slot = 0; sameColumns && slot < schema.size(); slot++)
+                sameColumns = log.readUTF().equals(schema.getColumnName(slot));
+            if (!sameColumns)
+                throw new PrideFeatureException("The columns of " + file + " are not the columns of the features computed");
+        } catch (EOFException e) {
+            throw new PrideFeatureException(file + " is not a feature store");
+        } catch (UTFDataFormatException e) {
+            throw new PrideFeatureException(file + " is not a feature store");
+        }
+    }
+
+    private void readKey(int record, byte[] key) throws IOException {
+        log.seek(dataStart + (long) record * recordLength);
+        log.readFully(key);
+    }
+
+    /**
+     * Load the saved index. The index is only used when the log still has the records it was saved with: the
+     * last record of the index has to be in the log with the same hash.
+     * @return number of records in the index, 0 if there is no index or it does not match the log
+     */
+    private int readIndex() {
+        File indexFile = getIndexFile(file);
+        if (!indexFile.isFile())
+            return 0;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16));
+            try {
+                byte[] magic = new byte[INDEX_MAGIC.length()];
+                in.readFully(magic);
+                if (!INDEX_MAGIC.equals(new String(magic, "US-ASCII")) || in.readInt() != FORMAT_VERSION)
+                    return 0;
+                int count = in.readInt();
+                if (count > records)
+                    return 0;
+                boolean lastFound = count == 0;
+                byte[] key = new byte[KEY_LENGTH];
+                if (count > 0)
+                    readKey(count - 1, key);
+                for (int i = 0; i < count; i++) {
+                    long hi = in.readLong();
+                    long lo = in.readLong();
+                    int record = in.readInt();
+                    if (record < 0 || record >= count) {
+                        index.clear();
+                        return 0;
+                    }
+                    if (record == count - 1)
+                        lastFound = hi == getLong(key, 0) && lo == getLong(key, 8);
+                    index.put(hi, lo, record);
+                }
+                if (!lastFound) {
+                    index.clear();
+                    return 0;
+                }
+                return count;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // the index is built again from the log
+            index.clear();
+            return 0;
+        }
+    }
+
+    private static void writeIndex(File indexFile, KeyIndex index, int records) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16));
+        try {
+            out.writeBytes(INDEX_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(records);
+            index.write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static long getLong(byte[] bytes, int from) {
+        long value = 0;
+        for (int i = from; i < from + 8; i++)
+            value = (value << 8) | (bytes[i] & 0xFF);
+        return value;
+    }
+
+    /**
+     * Open addressing hash table from the 128 bits hash of a spectrum to its record, without an object per entry.
+     */
+    private static class KeyIndex {
+
+        private long[] his;
+
+        private long[] los;
+
+        private int[] records;
+
+        private int size = 0;
+
+        private KeyIndex(int expected) {
+            int capacity = 16;
+            while (capacity < 2 * expected)
+                capacity <<= 1;
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            his = new long[capacity];
+            los = new long[capacity];
+            records = new int[capacity];
+            Arrays.fill(records, -1);
+        }
+
+        private void clear() {
+            Arrays.fill(records, -1);
+            size = 0;
+        }
+
+        /**
+         * @return the record of the hash, -1 if it is not in the table
+         */
+        private int get(long hi, long lo) {
+            int mask = records.length - 1;
+            for (int i = (int) (lo ^ (lo >>> 32)) & mask; records[i] != -1; i = (i + 1) & mask)
+                if (his[i] == hi && los[i] == lo)
+                    return records[i];
+            return -1;
+        }
+
+        private void put(long hi, long lo, int record) {
+            if (2 * (size + 1) > records.length) {
+                long[] oldHis = his;
+                long[] oldLos = los;
+                int[] oldRecords = records;
+                allocate(records.length * 2);
+                size = 0;
+                for (int i = 0; i < oldRecords.length; i++)
+                    if (oldRecords[i] != -1)
+                        put(oldHis[i], oldLos[i], oldRecords[i]);
+            }
+            int mask = records.length - 1;
+            int i = (int) (lo ^ (lo >>> 32)) & mask;
+            for (; records[i] != -1; i = (i + 1) & mask) {
+                if (his[i] == hi && los[i] == lo) {
+                    records[i] = record;
+                    return;
+                }
+            }
+            his[i] = hi;
+            los[i] = lo;
+            records[i] = record;
+            size++;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            for (int i = 0; i < records.length; i++) {
+                if (records[i] != -1) {
+                    out.writeLong(his[i]);
+                    out.writeLong(los[i]);
+                    out.writeInt(records[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package uk.ac.ebi.pride.utilities.quality.io;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureSchema;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureVector;
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Write the features of the spectra as a tab separated table, one row per spectrum. The rows are written as
+ * soon as they are given, nothing is kept in memory apart of the layout of the columns.
+ *
+ * The columns are named FEATURE[subset], where subset is the index of the peak list subset used to compute the
+ * feature. They are taken from the first row: the subsets in ascending order and the features of each subset in
+ * the order of SpectrumFeatureType.
+ *
+ * The rows can also be given as FeatureVector, then the columns are taken from the slots of its schema, in the
+ * same order. The missing features, NaN in the vector, are written as empty cells, as the features missing from
+ * the maps.
+ *
+ * @author ypriverol
+ */
+public class FeatureTableWriter implements Closeable {
+
+    private static final String SEPARATOR = "\t";
+
+    private final Writer writer;
+
+    private final String[] leadingColumns;
+
+    private final Collection<SpectrumFeatureType> featureTypes;
+
+    private final Collection<Integer> subsets;
+
+    private List<Integer> columnSubsets = null;
+
+    private List<SpectrumFeatureType> columnFeatures = null;
+
+    /**
+     * Schema of the last FeatureVector written and the slot of every column in it.
+     */
+    private FeatureSchema vectorSchema = null;
+
+    private int[] vectorSlots = null;
+
+    /**
+     * @param writer Writer of the table
+     * @param leadingColumns name of the columns written before the features, the first one is the spectrum id
+     * @param featureTypes features written to the table, null to write all of them
+     * @param subsets peak list subsets written to the table, null to write all of them
+     */
+    public FeatureTableWriter(Writer writer, String[] leadingColumns, Collection<SpectrumFeatureType> featureTypes, Collection<Integer> subsets) {
+        this.writer = (writer instanceof BufferedWriter) ? writer : new BufferedWriter(writer, 1 << 16);
+        this.leadingColumns = leadingColumns;
+        this.featureTypes = featureTypes;
+        this.subsets = subsets;
+    }
+
+    /**
+     * Write the row of one spectrum, the header is written before the first row.
+     * @param leadingValues values of the leading columns
+     * @param features features of the spectrum by peak list subset
+     * @throws IOException
+     */
+    public void write(String[] leadingValues, Map<Integer, Map<SpectrumFeatureType, Object>> features) throws IOException {
+        if (leadingValues.length != leadingColumns.length)
+            throw new IllegalArgumentException("Expected " + leadingColumns.length + " leading values, found: " + leadingValues.length);
+        if (columnFeatures == null)
+            writeHeader(features);
+
+        writeJoined(leadingValues);
+        for (int i = 0; i < columnFeatures.size(); i++) {
+            writer.write(SEPARATOR);
+            Map<SpectrumFeatureType, Object> values = features.get(columnSubsets.get(i));
+            Object value = (values != null) ? values.get(columnFeatures.get(i)) : null;
+            if (value != null)
+                writer.write(value.toString());
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Write the row of one spectrum from its FeatureVector, the header is written before the first row.
+     * @param leadingValues values of the leading columns
+     * @param features features of the spectrum
+     * @throws IOException
+     */
+    public void write(String[] leadingValues, FeatureVector features) throws IOException {
+        if (leadingValues.length != leadingColumns.length)
+            throw new IllegalArgumentException("Expected " + leadingColumns.length + " leading values, found: " + leadingValues.length);
+        FeatureSchema schema = features.getSchema();
+        if (columnFeatures == null)
+            writeHeader(schema);
+        if (schema != vectorSchema) {
+            vectorSlots = new int[columnFeatures.size()];
+            for (int i = 0; i < vectorSlots.length; i++)
+                vectorSlots[i] = schema.getSlot(columnSubsets.get(i), columnFeatures.get(i));
+            vectorSchema = schema;
+        }
+
+        writeJoined(leadingValues);
+        for (int slot : vectorSlots) {
+            writer.write(SEPARATOR);
+            double value = (slot != -1) ? features.get(slot) : Double.NaN;
+            if (!Double.isNaN(value))
+                writer.write(Double.toString(value));
+        }
+        writer.write('\n');
+    }
+
+    private void writeHeader(FeatureSchema schema) throws IOException {
+        columnSubsets = new ArrayList<Integer>();
+        columnFeatures = new ArrayList<SpectrumFeatureType>();
+        for (int slot = 0; slot < schema.size(); slot++) {
+            if (subsets != null && !subsets.contains(schema.getSubset(slot)))
+                continue;
+            if (featureTypes == null || featureTypes.contains(schema.getFeatureType(slot))) {
+                columnSubsets.add(schema.getSubset(slot));
+                columnFeatures.add(schema.getFeatureType(slot));
+            }
+        }
+        writeColumnNames();
+    }
+
+    private void writeHeader(Map<Integer, Map<SpectrumFeatureType, Object>> features) throws IOException {
+        columnSubsets = new ArrayList<Integer>();
+        columnFeatures = new ArrayList<SpectrumFeatureType>();
+        for (Integer subset : new TreeSet<Integer>(features.keySet())) {
+            if (subsets != null && !subsets.contains(subset))
+                continue;
+            Map<SpectrumFeatureType, Object> values = features.get(subset);
+            for (SpectrumFeatureType featureType : SpectrumFeatureType.values()) {
+                if (values.containsKey(featureType) && (featureTypes == null || featureTypes.contains(featureType))) {
+                    columnSubsets.add(subset);
+                    columnFeatures.add(featureType);
+                }
+            }
+        }
+        writeColumnNames();
+    }
+
+    private void writeColumnNames() throws IOException {
+        writeJoined(leadingColumns);
+        for (int i = 0; i < columnFeatures.size(); i++)
+            writer.write(SEPARATOR + columnFeatures.get(i) + "[" + columnSubsets.get(i) + "]");
+        writer.write('\n');
+    }
+
+    private void writeJoined(String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                writer.write(SEPARATOR);
+            writer.write(values[i]);
+        }
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,512 @@
+package uk.ac.ebi.pride.utilities.quality.io;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.utils.PrideFeatureException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Random access reader of MGF files. The file is memory mapped and the offset of every BEGIN IONS line is kept in
+ * an index, so any spectrum can be read without reading the spectra before it. The peaks are parsed from the bytes
+ * of the file into primitive arrays, only the title of the spectrum is decoded as a String.
+ *
+ * The index is saved next to the MGF file (file name plus INDEX_EXTENSION) and reused while the size and the
+ * modification time of the MGF file do not change. When the index can not be saved it is only kept in memory.
+ *
+ * Only the PEPMASS, CHARGE and TITLE parameters of every spectrum are used, the other parameters and the comments
+ * are ignored, and the peaks are sorted by m/z when they are not. getSpectrum can be called concurrently, so the
+ * spectra of a file can be read in parallel by giving every thread a range of indexes.
+ *
+ * @author ypriverol
+ */
+public class IndexedMgfReader implements Closeable {
+
+    public static final String INDEX_EXTENSION = ".qsidx";
+
+    private static final String INDEX_MAGIC = "QSMI";
+
+    private static final int INDEX_VERSION = 1;
+
+    /**
+     * Largest region of the file mapped in one buffer.
+     */
+    private static final long MAX_SEGMENT = 1L << 30;
+
+    private static final byte[] BEGIN_IONS = ascii("BEGIN IONS");
+
+    private static final byte[] END_IONS = ascii("END IONS");
+
+    private static final byte[] TITLE = ascii("TITLE");
+
+    private static final byte[] PEPMASS = ascii("PEPMASS");
+
+    private static final byte[] CHARGE = ascii("CHARGE");
+
+    private static final double[] POWERS_OF_TEN = {
+            1E0, 1E1, 1E2, 1E3, 1E4, 1E5, 1E6, 1E7, 1E8, 1E9, 1E10, 1E11,
+            1E12, 1E13, 1E14, 1E15, 1E16, 1E17, 1E18, 1E19, 1E20, 1E21, 1E22};
+
+    private final File file;
+
+    private final RandomAccessFile input;
+
+    /**
+     * Offset of every spectrum, followed by the length of the file.
+     */
+    private final long[] offsets;
+
+    /**
+     * Mapped regions of the file, every spectrum is inside one of them.
+     */
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * segmentStarts[s] is the offset of the segment s and segmentFirst[s] the first spectrum in it.
+     */
+    private final long[] segmentStarts;
+
+    private final int[] segmentFirst;
+
+    /**
+     * Open the file, with the saved index if it is up to date.
+     * @param file MGF file
+     * @throws IOException
+     */
+    public IndexedMgfReader(File file) throws IOException {
+        this.file = file;
+        this.input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            long length = channel.size();
+            File indexFile = getIndexFile(file);
+            long[] index = readIndex(indexFile, length, file.lastModified());
+            if (index == null) {
+                index = buildIndex(channel, length);
+                writeIndex(indexFile, index, file.lastModified());
+            }
+            offsets = index;
+
+            List<Integer> first = new ArrayList<Integer>();
+            int spectrum = 0;
+            while (spectrum < size()) {
+                first.add(spectrum);
+                long start = offsets[spectrum];
+                if (offsets[spectrum + 1] - start > MAX_SEGMENT)
+                    throw new PrideFeatureException("The spectrum " + spectrum + " of " + file + " is too large to be mapped");
+                while (spectrum < size() && offsets[spectrum + 1] - start <= MAX_SEGMENT)
+                    spectrum++;
+            }
+            segments = new MappedByteBuffer[first.size()];
+            segmentStarts = new long[first.size()];
+            segmentFirst = new int[first.size()];
+            for (int s = 0; s < segments.length; s++) {
+                segmentFirst[s] = first.get(s);
+                segmentStarts[s] = offsets[segmentFirst[s]];
+                long end = (s + 1 < segments.length) ? offsets[first.get(s + 1)] : length;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, segmentStarts[s], end - segmentStarts[s]);
+            }
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        } catch (RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the file where the index of a MGF file is saved
+     */
+    public static File getIndexFile(File file) {
+        return new File(file.getPath() + INDEX_EXTENSION);
+    }
+
+    /**
+     * @return number of spectra in the file
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @param index position of the spectrum in the file, starting in 0
+     * @return offset of the BEGIN IONS line of the spectrum
+     */
+    public long getOffset(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    /**
+     * Read one spectrum, this method can be called concurrently.
+     * @param index position of the spectrum in the file, starting in 0
+     * @return the spectrum
+     */
+    public SpectrumRecord getSpectrum(int index) {
+        checkIndex(index);
+        int s = Arrays.binarySearch(segmentFirst, index);
+        if (s < 0)
+            s = -s - 2;
+        ByteBuffer buffer = segments[s].duplicate();
+        buffer.limit((int) (offsets[index + 1] - segmentStarts[s]));
+        buffer.position((int) (offsets[index] - segmentStarts[s]));
+        return parseSpectrum(buffer, index);
+    }
+
+    /**
+     * Iterate a range of spectra in the order of the file. Several ranges can be iterated concurrently.
+     * @param from index of the first spectrum
+     * @param to index after the last spectrum
+     * @return Iterator of the spectra
+     */
+    public Iterator<SpectrumRecord> iterator(final int from, final int to) {
+        if (from < 0 || to > size() || from > to)
+            throw new IllegalArgumentException("Wrong range of spectra: " + from + " - " + to);
+        return new Iterator<SpectrumRecord>() {
+            private int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public SpectrumRecord next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getSpectrum(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("The spectra of a MGF file can not be removed");
+            }
+        };
+    }
+
+    /**
+     * @return Iterator of all the spectra in the order of the file
+     */
+    public Iterator<SpectrumRecord> iterator() {
+        return iterator(0, size());
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Spectrum " + index + " of " + size());
+    }
+
+    /**
+     * Parse the BEGIN IONS ... END IONS block at the position of the buffer.
+     */
+    private SpectrumRecord parseSpectrum(ByteBuffer buffer, int index) {
+        String title = null;
+        int charge = 0;
+        double precursorMz = 0;
+        int size = 0;
+        double[] mz = new double[256];
+        double[] intensity = new double[256];
+
+        // the first line is BEGIN IONS
+        int line = nextLine(buffer);
+        boolean ended = false;
+        while ((line = nextLine(buffer)) >= 0) {
+            int end = buffer.position();
+            int start = skipWhitespace(buffer, line, end);
+            end = trimEnd(buffer, start, end);
+            if (start == end || isComment(buffer.get(start)))
+                continue;
+            if (matches(buffer, start, end, END_IONS, false)) {
+                ended = true;
+                break;
+            }
+            if (Character.isLetter((char) buffer.get(start))) {
+                int separator = indexOf(buffer, start, end, (byte) '=');
+                if (separator < 0)
+                    throw error(index, "Wrong parameter line: " + decode(buffer, start, end));
+                int keyEnd = trimEnd(buffer, start, separator);
+                int value = skipWhitespace(buffer, separator + 1, end);
+                if (matches(buffer, start, keyEnd, TITLE, true))
+                    title = decode(buffer, value, end);
+                else if (matches(buffer, start, keyEnd, PEPMASS, true))
+                    precursorMz = parseDouble(buffer, value, tokenEnd(buffer, value, end), index);
+                else if (matches(buffer, start, keyEnd, CHARGE, true))
+                    charge = parseCharge(buffer, value, tokenEnd(buffer, value, end), index);
+                continue;
+            }
+            if (size == mz.length) {
+                mz = Arrays.copyOf(mz, size * 2);
+                intensity = Arrays.copyOf(intensity, size * 2);
+            }
+            int mzEnd = tokenEnd(buffer, start, end);
+            mz[size] = parseDouble(buffer, start, mzEnd, index);
+            int intensityStart = skipWhitespace(buffer, mzEnd, end);
+            intensity[size] = (intensityStart == end) ? 0 : parseDouble(buffer, intensityStart, tokenEnd(buffer, intensityStart, end), index);
+            size++;
+        }
+        if (!ended)
+            throw error(index, "END IONS expected before the end of the spectrum");
+
+        String id = (title != null) ? title : "index=" + index;
+
+        // the peaks are sorted by m/z by the PeakList when they are not
+        PeakList peaks = new PeakList(Arrays.copyOf(mz, size), Arrays.copyOf(intensity, size), precursorMz);
+        return new SpectrumRecord(id, charge, peaks);
+    }
+
+    private PrideFeatureException error(int index, String message) {
+        return new PrideFeatureException(message + " (spectrum " + index + " of " + file + ")");
+    }
+
+    /**
+     * The charge can be written as 2, 2+, 3- or as a list of charges (2+ and 3+), the first one is used.
+     */
+    private int parseCharge(ByteBuffer buffer, int start, int end, int index) {
+        int digitsEnd = end;
+        while (digitsEnd > start && (buffer.get(digitsEnd - 1) == '+' || buffer.get(digitsEnd - 1) == '-'))
+            digitsEnd--;
+        if (digitsEnd == start)
+            return 0;
+        int charge = 0;
+        for (int i = start; i < digitsEnd; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9 || charge > 100000)
+                throw error(index, "Wrong charge: " + decode(buffer, start, end));
+            charge = charge * 10 + digit;
+        }
+        return charge;
+    }
+
+    /**
+     * Parse a decimal number. The numbers with up to 15 significant digits and up to 22 decimals are computed
+     * as an exact integer divided by an exact power of ten, which gives the same value as Double.parseDouble;
+     * any other number is given to Double.parseDouble.
+     */
+    private double parseDouble(ByteBuffer buffer, int start, int end, int index) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+'))
+            negative = buffer.get(i++) == '-';
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean point = false;
+        boolean simple = i < end;
+        for (; i < end && simple; i++) {
+            byte c = buffer.get(i);
+            if (c >= '0' && c <= '9') {
+                if (mantissa != 0 || c != '0')
+                    digits++;
+                mantissa = mantissa * 10 + (c - '0');
+                if (point)
+                    decimals++;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                simple = false;
+            }
+        }
+        if (simple && digits <= 15 && decimals < POWERS_OF_TEN.length && i - start > (point ? 1 : 0) + (negative ? 1 : 0)) {
+            double value = mantissa / POWERS_OF_TEN[decimals];
+            return negative ? -value : value;
+        }
+        String value = decode(buffer, start, end);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw error(index, "Wrong number: " + value);
+        }
+    }
+
+    /**
+     * Move the buffer after the next line.
+     * @return start of the line, -1 at the end of the buffer
+     */
+    private static int nextLine(ByteBuffer buffer) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        if (start >= limit)
+            return -1;
+        int i = start;
+        while (i < limit && buffer.get(i) != '\n')
+            i++;
+        // the position is left at the end of the line, the new line is skipped by the next call
+        buffer.position(i);
+        if (i < limit)
+            buffer.position(i + 1);
+        return start;
+    }
+
+    private static int skipWhitespace(ByteBuffer buffer, int start, int end) {
+        while (start < end && isWhitespace(buffer.get(start)))
+            start++;
+        return start;
+    }
+
+    private static int trimEnd(ByteBuffer buffer, int start, int end) {
+        while (end > start && isWhitespace(buffer.get(end - 1)))
+            end--;
+        return end;
+    }
+
+    private static int tokenEnd(ByteBuffer buffer, int start, int end) {
+        while (start < end && !isWhitespace(buffer.get(start)))
+            start++;
+        return start;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int start, int end, byte value) {
+        for (int i = start; i < end; i++)
+            if (buffer.get(i) == value)
+                return i;
+        return -1;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int start, int end, byte[] value, boolean ignoreCase) {
+        if (end - start != value.length)
+            return false;
+        for (int i = 0; i < value.length; i++) {
+            byte c = buffer.get(start + i);
+            if (c != value[i] && !(ignoreCase && c >= 'a' && c <= 'z' && c - 'a' + 'A' == value[i]))
+                return false;
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(start + i);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new PrideFeatureException("UTF-8 is not supported", e);
+        }
+    }
+
+    private static boolean isWhitespace(byte c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f' || c == 0x0B;
+    }
+
+    private static boolean isComment(byte c) {
+        return c == '#' || c == ';' || c == '!' || c == '/';
+    }
+
+    private static byte[] ascii(String value) {
+        try {
+            return value.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new PrideFeatureException("US-ASCII is not supported", e);
+        }
+    }
+
+    /**
+     * Find the offset of every BEGIN IONS line, mapping the file one window at a time.
+     */
+    private static long[] buildIndex(FileChannel channel, long length) throws IOException {
+        long[] offsets = new long[1024];
+        int count = 0;
+        long windowStart = 0;
+        while (windowStart < length) {
+            long windowLength = Math.min(MAX_SEGMENT, length - windowStart);
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+            boolean last = windowStart + windowLength == length;
+            int line;
+            int lastComplete = 0;
+            while ((line = nextLine(window)) >= 0) {
+                int end = window.position();
+                boolean complete = end > line && window.get(end - 1) == '\n';
+                if (!complete && !last)
+                    break;
+                lastComplete = end;
+                int start = skipWhitespace(window, line, end);
+                if (matches(window, start, trimEnd(window, start, end), BEGIN_IONS, false)) {
+                    if (count == offsets.length)
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    offsets[count++] = windowStart + line;
+                }
+            }
+            if (last)
+                break;
+            if (lastComplete == 0)
+                throw new PrideFeatureException("Line too long in the MGF file at offset " + windowStart);
+            // the incomplete line is read again with the next window
+            windowStart += lastComplete;
+        }
+        offsets = Arrays.copyOf(offsets, count + 1);
+        offsets[count] = length;
+        return offsets;
+    }
+
+    /**
+     * @return the offsets saved in the index file, null if there is no index or it is not up to date
+     */
+    private static long[] readIndex(File indexFile, long length, long lastModified) {
+        if (!indexFile.isFile())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16));
+            try {
+                byte[] magic = new byte[INDEX_MAGIC.length()];
+                in.readFully(magic);
+                if (!INDEX_MAGIC.equals(new String(magic, "US-ASCII")) || in.readInt() != INDEX_VERSION)
+                    return null;
+                if (in.readLong() != length || in.readLong() != lastModified)
+                    return null;
+                long[] offsets = new long[in.readInt() + 1];
+                for (int i = 0; i < offsets.length - 1; i++)
+                    offsets[i] = in.readLong();
+                offsets[offsets.length - 1] = length;
+                return offsets;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // the index is built again
+            return null;
+        }
+    }
+
+    private static void writeIndex(File indexFile, long[] offsets, long lastModified) {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16));
+            try {
+                out.writeBytes(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeLong(offsets[offsets.length - 1]);
+                out.writeLong(lastModified);
+                out.writeInt(offsets.length - 1);
+                for (int i = 0; i < offsets.length - 1; i++)
+                    out.writeLong(offsets[i]);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            // the index can not be saved next to the file, it is only kept in memory
+            indexFile.delete();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package uk.ac.ebi.pride.utilities.quality.io;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeaturePlan;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureVector;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.SpectrumFeatureGenerator;
+import uk.ac.ebi.pride.utilities.quality.utils.PrideFeatureException;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compute the features of all the spectra of one MGF file with several threads. The file is split in chunks of
+ * consecutive spectra, every chunk is the byte range between two BEGIN IONS offsets of the IndexedMgfReader, and
+ * every worker thread parses a chunk and computes the features of its spectra. The chunks are handed back in the
+ * order of the file, so the rows are given to the RowHandler in the same order as the spectra in the file.
+ *
+ * Only a bounded number of chunks is pending at any time, so the memory used does not depend on the size of the
+ * file. The RowHandler is always called from the thread that runs the pipeline. When a FeatureStore is set, the
+ * features of the spectra already in the store are read from it instead of computed.
+ *
+ * @author ypriverol
+ */
+public class MgfFeaturePipeline {
+
+    /**
+     * Receive the features of every spectrum, in the order of the file.
+     */
+    public interface RowHandler {
+        /**
+         * @param spectrum the spectrum
+         * @param features its features, the vector is only valid during the call
+         * @throws IOException
+         */
+        public void handle(SpectrumRecord spectrum, FeatureVector features) throws IOException;
+    }
+
+    /**
+     * Number of spectra parsed and scored by a worker in one task.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    /**
+     * Number of chunks queued per worker thread, it bounds the memory used by pending spectra.
+     */
+    private static final int PENDING_PER_THREAD = 4;
+
+    private final SpectrumFeatureGenerator generator;
+
+    private final FeaturePlan plan;
+
+    private final int threads;
+
+    private final int chunkSize;
+
+    private FeatureStore store = null;
+
+    /**
+     * @param generator SpectrumFeatureGenerator
+     * @param plan FeaturePlan with the features to be computed
+     * @param threads number of worker threads, 1 computes the features in the calling thread
+     */
+    public MgfFeaturePipeline(SpectrumFeatureGenerator generator, FeaturePlan plan, int threads) {
+        this(generator, plan, threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param generator SpectrumFeatureGenerator
+     * @param plan FeaturePlan with the features to be computed
+     * @param threads number of worker threads, 1 computes the features in the calling thread
+     * @param chunkSize number of spectra of every chunk
+     */
+    public MgfFeaturePipeline(SpectrumFeatureGenerator generator, FeaturePlan plan, int threads, int chunkSize) {
+        if (threads < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1, found: " + threads);
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("Wrong chunk size: " + chunkSize);
+        this.generator = generator;
+        this.plan = plan;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param store FeatureStore with the schema of the plan used as a cache of the features, null to compute the
+     *              features of all the spectra
+     */
+    public void setFeatureStore(FeatureStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Compute the features of all the spectra of the file.
+     * @param reader IndexedMgfReader of the file
+     * @param handler RowHandler that receives the features of every spectrum
+     * @throws IOException if the handler fails
+     */
+    public void run(IndexedMgfReader reader, RowHandler handler) throws IOException {
+
+        if (threads == 1) {
+            FeatureVector features = new FeatureVector(plan.getSchema());
+            for (int i = 0; i < reader.size(); i++) {
+                SpectrumRecord spectrum = reader.getSpectrum(i);
+                computeFeatureVector(spectrum, features);
+                handler.handle(spectrum, features);
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+            for (int from = 0; from < reader.size(); from += chunkSize) {
+                pending.add(executor.submit(computeChunkTask(reader, from, Math.min(from + chunkSize, reader.size()))));
+                if (pending.size() >= threads * PENDING_PER_THREAD)
+                    getResult(pending.removeFirst()).handle(handler);
+            }
+            while (!pending.isEmpty())
+                getResult(pending.removeFirst()).handle(handler);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<Chunk> computeChunkTask(final IndexedMgfReader reader, final int from, final int to) {
+        return new Callable<Chunk>() {
+            @Override
+            public Chunk call() throws IOException {
+                Chunk chunk = new Chunk(to - from);
+                for (int i = from; i < to; i++) {
+                    SpectrumRecord spectrum = reader.getSpectrum(i);
+                    FeatureVector features = new FeatureVector(plan.getSchema());
+                    computeFeatureVector(spectrum, features);
+                    chunk.spectra[i - from] = spectrum;
+                    chunk.features[i - from] = features;
+                }
+                return chunk;
+            }
+        };
+    }
+
+    private void computeFeatureVector(SpectrumRecord spectrum, FeatureVector features) throws IOException {
+        if (store != null)
+            store.computeFeatureVector(generator, plan, spectrum.getPeaks(), spectrum.getCharge(), features);
+        else
+            generator.computeFeatureVector(spectrum.getPeaks(), spectrum.getCharge(), plan, features);
+    }
+
+    private static <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PrideFeatureException("Feature computation has been interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new PrideFeatureException("Error computing the features of the spectra", e.getCause());
+        }
+    }
+
+    /**
+     * Spectra of a chunk and their features.
+     */
+    private static class Chunk {
+
+        private final SpectrumRecord[] spectra;
+
+        private final FeatureVector[] features;
+
+        private Chunk(int size) {
+            spectra = new SpectrumRecord[size];
+            features = new FeatureVector[size];
+        }
+
+        private void handle(RowHandler handler) throws IOException {
+            for (int i = 0; i < spectra.length; i++)
+                handler.handle(spectra[i], features[i]);
+        }
+    }
+}
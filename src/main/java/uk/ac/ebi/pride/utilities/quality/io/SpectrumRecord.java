@@ -0,0 +1,38 @@
+package uk.ac.ebi.pride.utilities.quality.io;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+
+/**
+ * A spectrum read from a peak list file: its identifier, the charge of the precursor and the peaks.
+ *
+ * @author ypriverol
+ */
+public class SpectrumRecord {
+
+    private final String id;
+
+    private final int charge;
+
+    private final PeakList peaks;
+
+    public SpectrumRecord(String id, int charge, PeakList peaks) {
+        this.id = id;
+        this.charge = charge;
+        this.peaks = peaks;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return charge of the precursor, 0 when the file does not provide it
+     */
+    public int getCharge() {
+        return charge;
+    }
+
+    public PeakList getPeaks() {
+        return peaks;
+    }
+}
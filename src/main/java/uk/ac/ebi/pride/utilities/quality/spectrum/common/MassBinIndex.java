@@ -0,0 +1,125 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.common;
+
+/**
+ * Index of the unit mass bins that contain at least one peak. The bins are kept in a bitset with the number of
+ * occupied bins before every word of the bitset (rank), so the number of occupied bins in any range is computed
+ * in constant time, and the occupied bins are also kept in a list so they can be visited without scanning the
+ * empty ones.
+ *
+ * The bin of a m/z value is (int) (mz - start), where start is (int) of the smallest m/z.
+ *
+ * @author ypriverol
+ */
+public class MassBinIndex {
+
+    private final int start;
+
+    private final int length;
+
+    private final long[] words;
+
+    /**
+     * rank[w] is the number of occupied bins before the word w.
+     */
+    private final int[] rank;
+
+    private final int[] occupied;
+
+    /**
+     * @param mz m/z values, at least one. They are usually sorted, but the bins do not depend on the order
+     * @throws IllegalArgumentException if there are no m/z values
+     */
+    public MassBinIndex(double[] mz) {
+        if (mz.length == 0)
+            throw new IllegalArgumentException("No m/z values to index");
+        double min = mz[0], max = mz[0];
+        for (double value : mz) {
+            if (value < min)
+                min = value;
+            if (value > max)
+                max = value;
+        }
+        this.start = (int) min;
+        this.length = (int) (max + 1) - start + 1;
+        this.words = new long[(length + 63) >>> 6];
+        for (double value : mz) {
+            int bin = (int) (value - start);
+            words[bin >>> 6] |= 1L << (bin & 63);
+        }
+
+        this.rank = new int[words.length + 1];
+        for (int w = 0; w < words.length; w++)
+            rank[w + 1] = rank[w] + Long.bitCount(words[w]);
+
+        this.occupied = new int[rank[words.length]];
+        int k = 0;
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+            while (word != 0) {
+                occupied[k++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * @return integer mass of the first bin
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return number of bins, occupied or not
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return number of occupied bins
+     */
+    public int getOccupiedCount() {
+        return occupied.length;
+    }
+
+    /**
+     * @param k position among the occupied bins, from 0 to getOccupiedCount() - 1
+     * @return the k-th occupied bin, in ascending order
+     */
+    public int getOccupiedBin(int k) {
+        return occupied[k];
+    }
+
+    public boolean isOccupied(int bin) {
+        return bin >= 0 && bin < length && (words[bin >>> 6] & (1L << (bin & 63))) != 0;
+    }
+
+    /**
+     * Number of occupied bins from one bin to another, both included. The range is clipped to the bins of the
+     * index.
+     * @param from first bin
+     * @param to last bin
+     * @return number of occupied bins, 0 if the range is empty
+     */
+    public int count(int from, int to) {
+        if (from < 0)
+            from = 0;
+        if (to >= length)
+            to = length - 1;
+        if (to < from)
+            return 0;
+        return rank(to + 1) - rank(from);
+    }
+
+    /**
+     * @return number of occupied bins before the bin
+     */
+    private int rank(int bin) {
+        int w = bin >>> 6;
+        int before = rank[w];
+        if ((bin & 63) != 0)
+            before += Long.bitCount(words[w] & ((1L << (bin & 63)) - 1));
+        return before;
+    }
+}
@@ -0,0 +1,137 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.common;
+
+import uk.ac.ebi.pride.utilities.quality.utils.math.FastFourierTransform;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of the m/z sums of all the ordered pairs of peaks (i, j), including i = j, used to count complementary
+ * ions for many candidate parent masses. The m/z values are binned once and the histogram of the pair sums is the
+ * self-convolution of the occupancy histogram. It is computed directly from the pairs of peaks for small spectra and
+ * with a FFT when the number of pairs is larger than the cost of the transform.
+ *
+ * Only the sums in the range given to the constructor are kept, as prefix sums, so every count is answered in
+ * constant time. The counts are approximate: a pair is counted when the center of the bin of its sum is within the
+ * tolerance, so pairs closer than one bin width to the border of the tolerance can be counted or not.
+ *
+ * @author ypriverol
+ */
+public class PairSumHistogram {
+
+    /**
+     * Cost of one FFT butterfly compared with the check of one pair of peaks.
+     */
+    private static final double FFT_COST = 6;
+
+    /**
+     * Margin, in bins, for the rounding errors of the limits of the tolerance.
+     */
+    private static final double ROUNDING = 1E-6;
+
+    private final double binWidth;
+
+    /**
+     * Sum bin of the first position of the prefix sums.
+     */
+    private final long firstSum;
+
+    /**
+     * prefix[s] is the number of pairs with sum bin below firstSum + s.
+     */
+    private final long[] prefix;
+
+    /**
+     * @param mz m/z values, usually in ascending order
+     * @param binWidth width of the m/z bins
+     * @param minSum lowest pair sum that will be counted
+     * @param maxSum highest pair sum that will be counted
+     */
+    public PairSumHistogram(double[] mz, double binWidth, double minSum, double maxSum) {
+        this.binWidth = binWidth;
+        // the sum bin of a pair is the sum of the bins of its peaks, one extra bin is kept at both sides
+        this.firstSum = (long) Math.floor(minSum / binWidth) - 2;
+        int window = (int) ((long) Math.floor(maxSum / binWidth) + 1 - firstSum + 1);
+        long[] counts = new long[window];
+
+        if (mz.length > 0) {
+            long[] bins = new long[mz.length];
+            boolean sorted = true;
+            for (int i = 0; i < mz.length; i++) {
+                bins[i] = (long) Math.floor(mz[i] / binWidth);
+                if (i > 0 && bins[i] < bins[i - 1])
+                    sorted = false;
+            }
+            // the m/z values of a PeakList are sorted, other arrays are sorted here
+            if (!sorted)
+                Arrays.sort(bins);
+            int range = (int) (bins[mz.length - 1] - bins[0] + 1);
+            int fftSize = FastFourierTransform.nextPowerOfTwo(2 * range);
+            double fftCost = FFT_COST * fftSize * (Math.log(fftSize) / Math.log(2));
+            if ((double) mz.length * mz.length <= fftCost)
+                countPairs(bins, counts);
+            else
+                convolve(bins, range, fftSize, counts);
+        }
+
+        prefix = new long[window + 1];
+        for (int s = 0; s < window; s++)
+            prefix[s + 1] = prefix[s] + counts[s];
+    }
+
+    /**
+     * Number of ordered pairs of peaks whose m/z sum is within the tolerance of a mass.
+     * @param sum mass of the pair, it must be in the range given to the constructor
+     * @param tolerance mass tolerance
+     * @return number of pairs
+     */
+    public double count(double sum, double tolerance) {
+        // the pair sums of bin s are in [s * binWidth, (s + 2) * binWidth), the center is (s + 1) * binWidth and
+        // the bins with the center in [sum - tolerance, sum + tolerance) are counted
+        long low = (long) Math.ceil((sum - tolerance) / binWidth - ROUNDING) - 1;
+        long high = (long) Math.ceil((sum + tolerance) / binWidth - ROUNDING) - 2;
+        int from = (int) Math.max(0, Math.min(low - firstSum, prefix.length - 1));
+        int to = (int) Math.max(0, Math.min(high - firstSum + 1, prefix.length - 1));
+        return (to > from) ? prefix[to] - prefix[from] : 0;
+    }
+
+    /**
+     * Direct computation: for every peak i only the peaks j whose sum bin falls in the window are visited.
+     */
+    private void countPairs(long[] bins, long[] counts) {
+        int n = bins.length;
+        long lastSum = firstSum + counts.length - 1;
+        int hi = n - 1;
+        int lo = n;
+        for (int i = 0; i < n; i++) {
+            while (hi >= 0 && bins[i] + bins[hi] > lastSum)
+                hi--;
+            while (lo > 0 && bins[i] + bins[lo - 1] >= firstSum)
+                lo--;
+            for (int j = lo; j <= hi; j++)
+                counts[(int) (bins[i] + bins[j] - firstSum)]++;
+        }
+    }
+
+    /**
+     * Self-convolution of the occupancy histogram with a FFT.
+     */
+    private void convolve(long[] bins, int range, int fftSize, long[] counts) {
+        double[] re = new double[fftSize];
+        double[] im = new double[fftSize];
+        for (long bin : bins)
+            re[(int) (bin - bins[0])] += 1;
+        FastFourierTransform.transform(re, im, false);
+        for (int k = 0; k < fftSize; k++) {
+            double r = re[k] * re[k] - im[k] * im[k];
+            im[k] = 2 * re[k] * im[k];
+            re[k] = r;
+        }
+        FastFourierTransform.transform(re, im, true);
+        long offset = 2 * bins[0];
+        for (int s = 0; s < counts.length; s++) {
+            long position = firstSum + s - offset;
+            if (position >= 0 && position < 2 * range - 1)
+                counts[s] = Math.round(re[(int) position]);
+        }
+    }
+}
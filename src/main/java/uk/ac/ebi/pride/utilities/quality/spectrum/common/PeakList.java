@@ -0,0 +1,160 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.common;
+
+import uk.ac.ebi.pride.utilities.data.controller.DataAccessUtilities;
+import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+
+/**
+ * PeakList is the internal representation of the peaks of a spectrum used by the peak selectors
+ * and the feature calculators. The m/z and intensity values are stored in two parallel primitive
+ * arrays (struct-of-arrays), so no object is created per peak.
+ *
+ * The subsets of peaks produced by the peak selectors are index views: they share the arrays of the
+ * original peak list and only keep the positions of the selected peaks. A PeakList is immutable, the
+ * arrays given to the constructor must not be modified afterwards.
+ *
+ * The peaks of a PeakList are sorted by m/z in ascending order: the constructor sorts the peaks when they are
+ * not, and the views keep the order of the selected positions, which the peak selectors give in ascending order.
+ * The peak selectors and the feature calculators rely on this order. The only views in another order are the
+ * ones created by SpectrumUtils.sortByIntensity and by SpectrumUtils.sortByMass in descending order.
+ *
+ * @author ypriverol
+ */
+public final class PeakList {
+
+    private final double[] mz;
+
+    private final double[] intensity;
+
+    /**
+     * Positions of the peaks of this list in the mz and intensity arrays, null when the list contains all of them.
+     */
+    private final int[] index;
+
+    private final int size;
+
+    private final double precursorMz;
+
+    /**
+     * Create a peak list that uses the given arrays, they are only copied when the peaks are not sorted by m/z.
+     * @param mz m/z values
+     * @param intensity intensity values, same length as the m/z values
+     * @param precursorMz m/z of the precursor ion
+     */
+    public PeakList(double[] mz, double[] intensity, double precursorMz) {
+        if (mz.length != intensity.length)
+            throw new IllegalArgumentException("The m/z and intensity arrays have different length: " + mz.length + " != " + intensity.length);
+        if (!isSorted(mz)) {
+            int[] order = SpectrumUtils.argsort(mz, false);
+            mz = permute(mz, order);
+            intensity = permute(intensity, order);
+        }
+        this.mz = mz;
+        this.intensity = intensity;
+        this.index = null;
+        this.size = mz.length;
+        this.precursorMz = precursorMz;
+    }
+
+    private PeakList(double[] mz, double[] intensity, int[] index, int size, double precursorMz) {
+        this.mz = mz;
+        this.intensity = intensity;
+        this.index = index;
+        this.size = size;
+        this.precursorMz = precursorMz;
+    }
+
+    /**
+     * Create the peak list of a Spectrum. The binary arrays of the spectrum are copied once, the
+     * spectrum is not referenced by the peak list.
+     * @param spectrum Spectrum
+     * @return PeakList with all the peaks of the spectrum, sorted by m/z
+     */
+    public static PeakList fromSpectrum(Spectrum spectrum) {
+        double[] mz = spectrum.getMzBinaryDataArray().getDoubleArray().clone();
+        double[] intensity = spectrum.getIntensityBinaryDataArray().getDoubleArray().clone();
+        return new PeakList(mz, intensity, DataAccessUtilities.getPrecursorMz(spectrum));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public double getMz(int i) {
+        return index == null ? mz[i] : mz[index[i]];
+    }
+
+    public double getIntensity(int i) {
+        return index == null ? intensity[i] : intensity[index[i]];
+    }
+
+    public double getPrecursorMz() {
+        return precursorMz;
+    }
+
+    /**
+     * Create a view with a subset of the peaks of this list. The view shares the arrays of this list.
+     * @param positions positions of the selected peaks in this list, in the order they will have in the view,
+     *                  ascending to keep the peaks sorted by m/z
+     * @param count number of positions used from the array
+     * @return PeakList view with the selected peaks
+     */
+    public PeakList select(int[] positions, int count) {
+        int[] selected = new int[count];
+        for (int i = 0; i < count; i++)
+            selected[i] = (index == null) ? positions[i] : index[positions[i]];
+        return new PeakList(mz, intensity, selected, count, precursorMz);
+    }
+
+    /**
+     * Create a new peak list with the same m/z values as this one and different intensities, used by the
+     * selectors that transform the abundances of the peaks.
+     * @param intensities new intensity of every peak of this list, it is not copied
+     * @return PeakList with the new intensities
+     */
+    public PeakList withIntensities(double[] intensities) {
+        if (intensities.length != size)
+            throw new IllegalArgumentException("Expected " + size + " intensities, found: " + intensities.length);
+        return new PeakList(getMzArray(), intensities, precursorMz);
+    }
+
+    /**
+     * @return a new array with the m/z values of the peaks of the list
+     */
+    public double[] getMzArray() {
+        return copy(mz);
+    }
+
+    /**
+     * @return a new array with the intensities of the peaks of the list
+     */
+    public double[] getIntensityArray() {
+        return copy(intensity);
+    }
+
+    private static boolean isSorted(double[] values) {
+        for (int i = 1; i < values.length; i++)
+            if (Double.compare(values[i - 1], values[i]) > 0)
+                return false;
+        return true;
+    }
+
+    private static double[] permute(double[] values, int[] order) {
+        double[] result = new double[order.length];
+        for (int i = 0; i < order.length; i++)
+            result[i] = values[order[i]];
+        return result;
+    }
+
+    private double[] copy(double[] values) {
+        if (index == null)
+            return values.clone();
+        double[] result = new double[size];
+        for (int i = 0; i < size; i++)
+            result[i] = values[index[i]];
+        return result;
+    }
+}
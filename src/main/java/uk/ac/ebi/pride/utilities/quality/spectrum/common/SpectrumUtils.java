@@ -22,31 +22,9 @@ public class SpectrumUtils {
 
         double[] intensities = spectrum.getIntensityBinaryDataArray().getDoubleArray();
         double[] masses      = spectrum.getMzBinaryDataArray().getDoubleArray();
-        for(int i = 0; i < masses.length; i++){
-            for(int j = i + 1; j < masses.length; j++){
-                if(!revertOrder){
-                    if(masses[i] > masses[j]){
-                        double mass = masses[i];
-                        masses[i]   = masses[j];
-                        masses[j]   = mass;
-                        double intensity = intensities[i];
-                        intensities[i]   = intensities[j];
-                        intensities[j]   = intensity;
-                    }
-                }else{
-                    if(masses[i] < masses[j]){
-                        double mass = masses[i];
-                        masses[i]   = masses[j];
-                        masses[j]   = mass;
-                        double intensity = intensities[i];
-                        intensities[i]   = intensities[j];
-                        intensities[j]   = intensity;
-                    }
-                }
-            }
-        }
-        spectrum.getMzBinaryDataArray().setDoubleArray(masses);
-        spectrum.getIntensityBinaryDataArray().setDoubleArray(intensities);
+        int[] index = argsort(masses, revertOrder);
+        spectrum.getMzBinaryDataArray().setDoubleArray(permute(masses, index));
+        spectrum.getIntensityBinaryDataArray().setDoubleArray(permute(intensities, index));
         return spectrum;
 
     }
@@ -62,33 +40,176 @@ public class SpectrumUtils {
 
         double[] intensities = spectrum.getIntensityBinaryDataArray().getDoubleArray();
         double[] masses      = spectrum.getMzBinaryDataArray().getDoubleArray();
-        for(int i = 0; i < intensities.length; i++){
-            for(int j = i + 1; j < intensities.length; j++){
-                if(!revertOrder){
-                    if(intensities[i] > intensities[j]){
-                        double mass = masses[i];
-                        masses[i]   = masses[j];
-                        masses[j]   = mass;
-                        double intensity = intensities[i];
-                        intensities[i]   = intensities[j];
-                        intensities[j]   = intensity;
-                    }
-                }else{
-                    if(intensities[i] < intensities[j]){
-                        double mass = masses[i];
-                        masses[i]   = masses[j];
-                        masses[j]   = mass;
-                        double intensity = intensities[i];
-                        intensities[i]   = intensities[j];
-                        intensities[j]   = intensity;
-                    }
+        int[] index = argsort(intensities, revertOrder);
+        spectrum.getMzBinaryDataArray().setDoubleArray(permute(masses, index));
+        spectrum.getIntensityBinaryDataArray().setDoubleArray(permute(intensities, index));
+        return spectrum;
+
+    }
+
+    /**
+     * Sort the peaks of a peak list by Mass. The result is a view of the peak list, the peak list is not modified.
+     * @param peaks PeakList
+     * @param revertOrder largest to smallest (revertOrder = true) or smallest to largest (revertOrder = false)
+     * @return PeakList view with the peaks sorted by mass
+     */
+    public static PeakList sortByMass(PeakList peaks, boolean revertOrder){
+        return peaks.select(argsort(peaks.getMzArray(), revertOrder), peaks.size());
+    }
+
+    /**
+     * Sort the peaks of a peak list by Intensity. The result is a view of the peak list, the peak list is not modified.
+     * @param peaks PeakList
+     * @param revertOrder largest to smallest (revertOrder = true) or smallest to largest (revertOrder = false)
+     * @return PeakList view with the peaks sorted by intensity
+     */
+    public static PeakList sortByIntensity(PeakList peaks, boolean revertOrder){
+        return peaks.select(argsort(peaks.getIntensityArray(), revertOrder), peaks.size());
+    }
+
+    /**
+     * Compute the permutation that sorts the values (argsort), the values are not modified. The sort is stable
+     * and O(n log n); values already sorted in the requested order, or in the opposite one, are detected in a
+     * single pass, which is the usual case for the m/z values of a spectrum. Values are compared as in
+     * Double.compare, NaN is larger than any other value.
+     * @param values values to be sorted
+     * @param revertOrder largest to smallest (revertOrder = true) or smallest to largest (revertOrder = false)
+     * @return positions of the values in sorted order
+     */
+    public static int[] argsort(double[] values, boolean revertOrder){
+        int n = values.length;
+        int[] index = new int[n];
+        boolean sorted = true, reversed = true;
+        for(int i = 1; i < n && (sorted || reversed); i++){
+            int comparison = compare(values[i - 1], values[i], revertOrder);
+            if(comparison > 0)
+                sorted = false;
+            if(comparison <= 0)
+                reversed = false;
+        }
+        if(!sorted && reversed){
+            // strictly in the opposite order: the reversed positions keep the sort stable
+            for(int i = 0; i < n; i++)
+                index[i] = n - 1 - i;
+            return index;
+        }
+        for(int i = 0; i < n; i++)
+            index[i] = i;
+        if(!sorted)
+            mergeSort(index, new int[n], values, 0, n, revertOrder);
+        return index;
+    }
+
+    /**
+     * Select the positions of the k largest values, from largest to smallest, without sorting all of them: the
+     * k largest values are partitioned with a quickselect and only they are sorted, O(n + k log k).
+     * @param values values
+     * @param k number of positions to select
+     * @return positions of the min(k, values.length) largest values, in descending order of the values (equal
+     * values in ascending order of position)
+     */
+    public static int[] selectLargest(double[] values, int k){
+        int n = values.length;
+        if(k >= n)
+            return argsort(values, true);
+        if(k <= 0)
+            return new int[0];
+        int[] index = new int[n];
+        for(int i = 0; i < n; i++)
+            index[i] = i;
+        // move the k largest values to the first k positions
+        int lo = 0, hi = n - 1;
+        while(lo < hi){
+            int pivotPosition = medianOfThree(index, values, lo, lo + (hi - lo) / 2, hi);
+            int pivot = index[pivotPosition];
+            swap(index, pivotPosition, hi);
+            int store = lo;
+            for(int i = lo; i < hi; i++){
+                // equal values are ordered by position, so the selection is the same as the stable sort
+                int comparison = compare(values[index[i]], values[pivot], true);
+                if(comparison < 0 || (comparison == 0 && index[i] < pivot))
+                    swap(index, i, store++);
+            }
+            swap(index, store, hi);
+            if(store == k - 1 || store == k)
+                break;
+            if(store < k)
+                lo = store + 1;
+            else
+                hi = store - 1;
+        }
+        int[] largest = Arrays.copyOf(index, k);
+        Arrays.sort(largest);
+        mergeSort(largest, new int[k], values, 0, k, true);
+        return largest;
+    }
+
+    /**
+     * Copy of the values in the order given by the positions.
+     */
+    private static double[] permute(double[] values, int[] index){
+        double[] result = new double[index.length];
+        for(int i = 0; i < index.length; i++)
+            result[i] = values[index[i]];
+        return result;
+    }
+
+    private static int compare(double a, double b, boolean revertOrder){
+        return revertOrder ? Double.compare(b, a) : Double.compare(a, b);
+    }
+
+    /**
+     * Stable merge sort of the positions index[from, to) by their values, small ranges are sorted by insertion.
+     */
+    private static void mergeSort(int[] index, int[] buffer, double[] values, int from, int to, boolean revertOrder){
+        if(to - from <= 16){
+            for(int i = from + 1; i < to; i++){
+                int position = index[i];
+                int j = i - 1;
+                while(j >= from && compare(values[index[j]], values[position], revertOrder) > 0){
+                    index[j + 1] = index[j];
+                    j--;
                 }
+                index[j + 1] = position;
             }
+            return;
         }
-        spectrum.getMzBinaryDataArray().setDoubleArray(masses);
-        spectrum.getIntensityBinaryDataArray().setDoubleArray(intensities);
-        return spectrum;
+        int middle = (from + to) >>> 1;
+        mergeSort(index, buffer, values, from, middle, revertOrder);
+        mergeSort(index, buffer, values, middle, to, revertOrder);
+        if(compare(values[index[middle - 1]], values[index[middle]], revertOrder) <= 0)
+            return;
+        System.arraycopy(index, from, buffer, from, to - from);
+        int left = from, right = middle;
+        for(int i = from; i < to; i++){
+            if(right >= to || (left < middle && compare(values[buffer[left]], values[buffer[right]], revertOrder) <= 0))
+                index[i] = buffer[left++];
+            else
+                index[i] = buffer[right++];
+        }
+    }
+
+    private static int medianOfThree(int[] index, double[] values, int a, int b, int c){
+        double va = values[index[a]], vb = values[index[b]], vc = values[index[c]];
+        if(Double.compare(va, vb) < 0){
+            if(Double.compare(vb, vc) < 0) return b;
+            return Double.compare(va, vc) < 0 ? c : a;
+        }
+        if(Double.compare(va, vc) < 0) return a;
+        return Double.compare(vb, vc) < 0 ? c : b;
+    }
 
+    private static void swap(int[] index, int i, int j){
+        int position = index[i];
+        index[i] = index[j];
+        index[j] = position;
+    }
+
+    public static double getTotIonCurrentCount(PeakList peaks){
+        double ionCurrentCount = 0.0;
+        for(int i = 0; i < peaks.size(); i++)
+            ionCurrentCount = ionCurrentCount + peaks.getIntensity(i);
+        return ionCurrentCount;
     }
 
     public static double getTotIonCurrentCount(Spectrum spectrum){
@@ -98,7 +219,85 @@ public class SpectrumUtils {
         return ionCurrentCount;
     }
 
+    /**
+     * Count, for every offset, the pairs of peaks (i, j) with |mz[j] - mz[i] - offset| &lt; tolerance. All the
+     * offsets are counted in one sweep over the peaks: for every offset the first and the last matching peak
+     * only move forward as i grows, so the cost is linear in the number of peaks for each offset. Equal offsets
+     * are counted once.
+     * @param mz m/z values in ascending order
+     * @param offsets mass differences to look for, they can be negative
+     * @param tolerance mass tolerance
+     * @return number of pairs found for every offset, in the order of the offsets
+     */
+    public static double[] countMassDifferences(double[] mz, double[] offsets, double tolerance){
+        int[] first = new int[offsets.length];
+        for(int k = 0; k < offsets.length; k++){
+            first[k] = k;
+            for(int l = 0; l < k; l++){
+                if(offsets[l] == offsets[k]){
+                    first[k] = l;
+                    break;
+                }
+            }
+        }
 
+        int[] lower = new int[offsets.length];
+        int[] upper = new int[offsets.length];
+        double[] counts = new double[offsets.length];
+        for(int i = 0; i < mz.length; i++){
+            for(int k = 0; k < offsets.length; k++){
+                if(first[k] != k)
+                    continue;
+                int lo = lower[k];
+                while(lo < mz.length && mz[lo] - mz[i] - offsets[k] <= -tolerance)
+                    lo++;
+                int hi = Math.max(upper[k], lo);
+                while(hi < mz.length && mz[hi] - mz[i] - offsets[k] < tolerance)
+                    hi++;
+                lower[k] = lo;
+                upper[k] = hi;
+                counts[k] += hi - lo;
+            }
+        }
+        for(int k = 0; k < offsets.length; k++)
+            counts[k] = counts[first[k]];
+        return counts;
+    }
 
+    /**
+     * Count, for every target, the pairs of peaks (i, j) with |mz[i] + factor * mz[j] - target| &lt;= tolerance,
+     * such as complementary fragment ions of a precursor. All the targets are counted in one sweep over the peaks:
+     * as mz[i] grows, the matching peaks j of every target move down, so they are tracked with two pointers per
+     * target that only move backwards.
+     * @param mz m/z values in ascending order
+     * @param factor factor applied to the m/z of the second peak of the pair, it must be positive
+     * @param targets mass of the pair to look for
+     * @param tolerance mass tolerance
+     * @return number of pairs found for every target, in the order of the targets
+     */
+    public static double[] countComplementaryPairs(double[] mz, double factor, double[] targets, double tolerance){
+        int[] upper = new int[targets.length];
+        int[] lower = new int[targets.length];
+        Arrays.fill(upper, mz.length - 1);
+        Arrays.fill(lower, mz.length);
+        double[] counts = new double[targets.length];
+        for(int i = 0; i < mz.length; i++){
+            for(int k = 0; k < targets.length; k++){
+                // highest peak not above the target
+                int hi = upper[k];
+                while(hi >= 0 && mz[i] + factor * mz[hi] - targets[k] > tolerance)
+                    hi--;
+                // lowest peak not below the target
+                int lo = lower[k];
+                while(lo > 0 && mz[i] + factor * mz[lo - 1] - targets[k] >= -tolerance)
+                    lo--;
+                upper[k] = hi;
+                lower[k] = lo;
+                if(hi >= lo)
+                    counts[k] += hi - lo + 1;
+            }
+        }
+        return counts;
+    }
 
 }
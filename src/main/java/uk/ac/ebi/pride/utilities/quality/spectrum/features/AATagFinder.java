@@ -1,12 +1,13 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.features;
 
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.utils.Constants;
 import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * AAFinder is a class that calculates the features that have to do
@@ -31,93 +32,146 @@ import java.util.Map;
  *
  */
 public class AATagFinder implements FeatureCalculator{
+
+    private static final Set<SpectrumFeatureType> FEATURE_TYPES = Collections.unmodifiableSet(EnumSet.of(SpectrumFeatureType.QUALSCORE_AA_MASS_DIFF, SpectrumFeatureType.QUALSCORE_AA_MASS_ABUNDANCE_WEIGHTED, SpectrumFeatureType.QUALSCORE_AA_MASS_TAG_AVG_LONGER, SpectrumFeatureType.QUALSCORE_AA_MASS_TAG_LONGER));
+
     /**
      * The tolerance that is used when comparing a peak distance and a possible amino acid.
      */
     private static final double TOLERANCE = 0.7;
 
-    private static AATagFinder instance;
+    /**
+     * Amino acid masses in ascending order, the nearest one to a distance is found walking the table.
+     */
+    private static final double[] AA_MASSES = sortedCopy(Constants.AAMasses);
 
-    Map<SpectrumFeatureType, Object> features = new HashMap<SpectrumFeatureType, Object>();
+    /**
+     * Range of peak distances that can be an amino acid. A small margin is added so the distances at the
+     * border of the tolerance are still compared with the amino acid masses.
+     */
+    private static final double MIN_DISTANCE = AA_MASSES[0] - TOLERANCE - 1E-6;
+
+    private static final double MAX_DISTANCE = AA_MASSES[AA_MASSES.length - 1] + TOLERANCE + 1E-6;
+
+    private static AATagFinder instance;
 
     protected AATagFinder(){
-        features.put(SpectrumFeatureType.QUALSCORE_AA_MASS_DIFF,         0);
-        features.put(SpectrumFeatureType.QUALSCORE_AA_MASS_ABUNDANCE_WEIGHTED,0);
-        features.put(SpectrumFeatureType.QUALSCORE_AA_MASS_TAG_AVG_LONGER, 0);
-        features.put(SpectrumFeatureType.QUALSCORE_AA_MASS_TAG_LONGER, 0);
+    }
 
+    /**
+     * Default values returned when there is no data. They are written in the vector of the
+     * spectrum, so the calculator does not keep any state between spectra.
+     */
+    private static void setDefaultFeatures(FeatureVector features, int subset){
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AA_MASS_DIFF,         0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AA_MASS_ABUNDANCE_WEIGHTED,0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AA_MASS_TAG_AVG_LONGER, 0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AA_MASS_TAG_LONGER, 0);
     }
 
-    public static AATagFinder getInstance(){
+    public static synchronized AATagFinder getInstance(){
         if(instance == null)
             instance = new AATagFinder();
         return instance;
     }
 
+    private static double[] sortedCopy(double[] values){
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    @Override
+    public Set<SpectrumFeatureType> getFeatureTypes() {
+        return FEATURE_TYPES;
+    }
+
     /**
-     * Calculate the 4 above-mentioned values for a certain Scan
-     * @param spectrum The Scan to calculate the values for.
+     * Calculate the 4 above-mentioned values for a certain Scan. The peaks are expected in m/z order: for every
+     * peak only the following peaks within an amino acid mass (plus the tolerance) are compared, and the chains
+     * of amino-acid-like distances are kept in a compressed adjacency array (CSR) for the longest tag search.
+     * @param peaks The peaks of the Scan to calculate the values for.
      * @param charge If this is a singly or multiply charged spectrum
-     * @return The calculated features
+     * @param features FeatureVector where the calculated features are written
+     * @param subset index of the peak list subset of the peaks
      */
-
     @Override
-    public Map<SpectrumFeatureType, Object> computeFeature(Spectrum spectrum, int charge) {
+    public void computeFeature(PeakList peaks, int charge, FeatureVector features, int subset) {
+
+        setDefaultFeatures(features, subset);
 
-        if (spectrum == null || spectrum.getMassIntensityMap().length == 0)
-            return features;
+        if (peaks == null || peaks.isEmpty())
+            return;
 
-        double[][] peakList = spectrum.getMassIntensityMap();
-        double[]   count = new double[peakList.length];
-            
-        ArrayList[] destinations = new ArrayList[peakList.length];
-        double result1 = 0, result1_pos = 0, result1_tot = 0;
+        double[] mz = peaks.getMzArray();
+        double[] intensity = peaks.getIntensityArray();
+        int n = mz.length;
+
+        // destinations of peak i are targets[edgeStart[i]] ... targets[edgeStart[i + 1] - 1]
+        int[] edgeStart = new int[n + 1];
+        int[] targets = new int[Math.max(16, n)];
+        int edges = 0;
+
+        double result1, result1_pos = 0, result1_tot;
         double result2 = 0;
         double result3 = 0;
-        double result4 = 0, result4_pos = 0, result4_tot = 0;
+        double result4, result4_pos = 0, result4_tot = 0;
 
-        for (int i = 0; i < peakList.length; i++) {
-            destinations[i] = new ArrayList();
-            int aaIndex = 0, aaIndex2 = 0;
-            for (int j = i + 1; j < peakList.length; j++) {
-                while (aaIndex != Constants.AAMasses.length - 1 && Math.abs(peakList[i][0] + Constants.AAMasses[aaIndex + 1] - peakList[j][0]) < Math.abs(peakList[i][0] + Constants.AAMasses[aaIndex] - peakList[j][0])) {
+        int first = 1;
+        for (int i = 0; i < n; i++) {
+            edgeStart[i] = edges;
+            // peaks closer than the lightest amino acid can not match, neither can the peaks after the heaviest one
+            if (first <= i)
+                first = i + 1;
+            while (first < n && mz[first] - mz[i] < MIN_DISTANCE)
+                first++;
+            int aaIndex = 0;
+            for (int j = first; j < n && mz[j] - mz[i] <= MAX_DISTANCE; j++) {
+                // nearest amino acid mass, the distance grows with j so the index only moves forward
+                while (aaIndex != AA_MASSES.length - 1 && Math.abs(mz[i] + AA_MASSES[aaIndex + 1] - mz[j]) < Math.abs(mz[i] + AA_MASSES[aaIndex] - mz[j])) {
                     aaIndex++;
                 }
-                if (Math.abs(peakList[i][0] + Constants.AAMasses[aaIndex] - peakList[j][0]) < TOLERANCE) {
-                    destinations[i].add(new Integer(j));
+                if (Math.abs(mz[i] + AA_MASSES[aaIndex] - mz[j]) < TOLERANCE) {
+                    if (edges == targets.length)
+                        targets = Arrays.copyOf(targets, edges * 2);
+                    targets[edges++] = j;
                     result1_pos += 1;
-                    result4_pos += (peakList[i][1] * peakList[j][1]);
+                    result4_pos += (intensity[i] * intensity[j]);
                 }
-                result1_tot += 1;  // count all comparisons as a reference value
-                result4_tot += (peakList[i][1] * peakList[j][1]);  // sum up all comparisons as a reference value
             }
         }
+        edgeStart[n] = edges;
+
+        // all the comparisons are the reference values: the number of pairs and the sum of the intensity products
+        result1_tot = n * (n - 1) / 2.0;
+        double suffixIntensity = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            result4_tot += intensity[i] * suffixIntensity;
+            suffixIntensity += intensity[i];
+        }
 
-        if (peakList.length != 0) {
-                result1 /= peakList.length*(double)peakList.length; // normalize result1
-                for (int i = 0; i < peakList.length; i++) count[i] = 1;
-                result2 = 0;
-                for (int j = peakList.length - 2; j >= 0; j--) {
-                    for (int i = 0; i < destinations[j].size(); i++) {
-                        int dest = ((Integer) destinations[j].get(i)).intValue();
-                        if (count[j] < count[dest] + 1) {
-                            count[j] = count[dest] + 1;
-                            if (count[j] > result3) result3 = count[j];
-                        }
-                    }
+        // longest chain of amino acid distances starting in every peak
+        double[] count = new double[n];
+        Arrays.fill(count, 1);
+        for (int j = n - 2; j >= 0; j--) {
+            for (int e = edgeStart[j]; e < edgeStart[j + 1]; e++) {
+                int dest = targets[e];
+                if (count[j] < count[dest] + 1) {
+                    count[j] = count[dest] + 1;
+                    if (count[j] > result3) result3 = count[j];
                 }
-                for (int i = 0; i<peakList.length; i++) result2 += count[i];
-                result2 /= peakList.length;
             }
-            
-            //calculate final results
-            result1 = result1_pos / (result1_tot + 1) * 10;
-            result4 = ( result4_pos/(result1_pos + 1) ) / ( (result4_tot / (result1_tot + 1)) + 1 ) * 10; // average of positive comparisons divided by average of total comparisons
-            features.put(SpectrumFeatureType.QUALSCORE_AA_MASS_DIFF,result1);
-            features.put(SpectrumFeatureType.QUALSCORE_AA_MASS_ABUNDANCE_WEIGHTED,result4);
-            features.put(SpectrumFeatureType.QUALSCORE_AA_MASS_TAG_AVG_LONGER, result2);
-            features.put(SpectrumFeatureType.QUALSCORE_AA_MASS_TAG_LONGER, result3);
-            return features;
         }
+        for (int i = 0; i < n; i++) result2 += count[i];
+        result2 /= n;
+
+        //calculate final results
+        result1 = result1_pos / (result1_tot + 1) * 10;
+        result4 = ( result4_pos/(result1_pos + 1) ) / ( (result4_tot / (result1_tot + 1)) + 1 ) * 10; // average of positive comparisons divided by average of total comparisons
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AA_MASS_DIFF, result1);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AA_MASS_ABUNDANCE_WEIGHTED, result4);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AA_MASS_TAG_AVG_LONGER, result2);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AA_MASS_TAG_LONGER, result3);
+    }
 
 }
@@ -1,16 +1,18 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.features;
 
 
-import uk.ac.ebi.pride.utilities.data.controller.DataAccessUtilities;
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PairSumHistogram;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * This class generates additional scores based on the complementarity
- * between b- and y-ions.
+ * between b- and y-ions. The complementary pairs are counted on a binned
+ * histogram of the m/z sums of the peak pairs (see PairSumHistogram).
  * originally developed by Franz Roos & Jonas Grossmann
  *
  * @author ypriverol
@@ -18,93 +20,59 @@ import java.util.Map;
 
 public class Complementarity implements FeatureCalculator{
 
+    private static final Set<SpectrumFeatureType> FEATURE_TYPES = Collections.unmodifiableSet(EnumSet.of(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3vs3, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_1vs3, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_iso1, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_sgn));
 
-    private Map<SpectrumFeatureType, Object> features = new HashMap<SpectrumFeatureType, Object>();
+
+    /**
+     * Width of the m/z bins used to count the complementary peaks, it limits the precision of the tolerances.
+     */
+    private static final double BIN_WIDTH = 0.01;
 
     private static Complementarity instance = null;
 
     protected Complementarity(){
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3vs3, 0);
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_1vs3, 0);
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_iso1, 0);
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_sgn,  0);
-
     }
 
-    public static Complementarity getInstance(){
+    public static synchronized Complementarity getInstance(){
         if(instance == null)
             instance = new Complementarity();
         return instance;
     }
 
     @Override
-    public Map<SpectrumFeatureType, Object> computeFeature(Spectrum spectrum, int charge) {
-        double[][] peakList = spectrum.getMassIntensityMap();
-        double[] count = new double[peakList.length];
+    public Set<SpectrumFeatureType> getFeatureTypes() {
+        return FEATURE_TYPES;
+    }
+
+    @Override
+    public void computeFeature(PeakList peaks, int charge, FeatureVector features, int subset) {
+        double[] mz = (peaks != null) ? peaks.getMzArray() : new double[0];
         double chargestate = 2;
-        double parentmass = DataAccessUtilities.getPrecursorMz(spectrum) * chargestate;
+        double parentmass = (peaks != null ? peaks.getPrecursorMz() : 0) * chargestate;
 
         int repeats = 8;
-        double score1 = 0, sum1 = 0;
-        double score2 = 0, sum2 = 0;
-        double score3 = 0, sum3 = 0;
-        double score4 = 0, sum4 = 0;
-        double score5 = 0;
-        double score6 = 0;
-        double score7 = 0;
+        double score1 = 0, background = 0;
+        double score2 = 0;
+        double score3 = 0;
+        double score4 = 0;
+
+        // all the parent masses are counted on the same histogram of pair sums
+        PairSumHistogram complements = new PairSumHistogram(mz, BIN_WIDTH, parentmass - repeats * 5 - 1.0, parentmass + 1 + 0.5);
 
         // average background complementarity count over several nonsense offsets such as -5, -10, -15, ...
         for(int i = 1; i <= repeats; i++){
-            sum1 += comparePeaks(peakList, 1.0, parentmass - i * 5);
-            sum2 += comparePeaks(peakList, 1.0, parentmass - i * 5);
-            sum3 += comparePeaks(peakList, 1.0, parentmass - i * 5);
-            sum4 += comparePeaks(peakList, 1.0, parentmass - i * 5);
+            background += complements.count(parentmass - i * 5, 1.0);
         }
 
-        score1 = Math.sqrt(comparePeaks(peakList, 0.3, parentmass) / ((sum1 / repeats) + 1) * 10); // avoid division by zero
-        score2 = Math.sqrt(comparePeaks(peakList, 1.0, parentmass) / ((sum2 / repeats) + 1) * 10); // use -10 as background noise measurement
-        score3 = Math.sqrt(comparePeaks(peakList, 0.5, parentmass + 1 ) / ((sum3 / repeats) + 1)); // isotope
-        score4 = Math.sqrt(comparePeaks(peakList, 0.5, parentmass + 0 ) / ((sum4 / repeats) + 1)); // main signal
-        score5 = Math.sqrt(comparePeaks(peakList, 0.5, parentmass - 17) / (comparePeaks(peakList, 0.5, parentmass - 10) + 1)); // ammonia
-        score6 = Math.sqrt(comparePeaks(peakList, 0.5, parentmass - 18) / (comparePeaks(peakList, 0.5, parentmass - 10) + 1)); // water
-        score7 = Math.sqrt(comparePeaks(peakList, 0.5, parentmass - 28) / (comparePeaks(peakList, 0.5, parentmass - 10) + 1)); // carbon monoxide
-
-        Map<SpectrumFeatureType, Object> features = new HashMap<SpectrumFeatureType, Object>();
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3vs3, score1);
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_1vs3, score2);
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_iso1, score3);
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_sgn, score4);
-        return features;
-//        return new double[] {score1, score2, score3, score4};
+        score1 = Math.sqrt(complements.count(parentmass, 0.3) / ((background / repeats) + 1) * 10); // avoid division by zero
+        score2 = Math.sqrt(complements.count(parentmass, 1.0) / ((background / repeats) + 1) * 10); // use -10 as background noise measurement
+        score3 = Math.sqrt(complements.count(parentmass + 1, 0.5) / ((background / repeats) + 1)); // isotope
+        score4 = Math.sqrt(complements.count(parentmass + 0, 0.5) / ((background / repeats) + 1)); // main signal
 
+        features.set(subset, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3vs3, score1);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_1vs3, score2);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_iso1, score3);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_sgn, score4);
     }
 
-     // method to count complementary peaks for a given parent mass; running time optimized
-     private static double comparePeaks(double[][] peakList, double masstolerance, double parentmass){
-         double count = 0;
-         int upper_compl;
-         double massdiff = 0;
-
-         // compare all against all peaks, but leave out those that are out of the mass tolerance anyway
-         upper_compl = peakList.length - 1;
-         for (int i = 0; i < peakList.length; i++){
-             for (int j = upper_compl; j > 0; j--){
-                 // going all the way down from the parent mass
-                 massdiff = peakList[i][0] + peakList[j][0] - parentmass;
-                 if(Math.abs(massdiff) < masstolerance){
-                     count += 1;  // correct complement
-                 }else{
-                      // try to save time
-                      if(massdiff > 0){
-                          upper_compl = upper_compl - 1; // no point in searching as far up as here
-                      }else{
-                          break; // no point in searching as low as here
-                      }
-                 }
-             }
-         }
-         return count;
-     }
-
-
 }
@@ -1,12 +1,15 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.features;
 
-import uk.ac.ebi.pride.utilities.data.controller.DataAccessUtilities;
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.MassBinIndex;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+import uk.ac.ebi.pride.utilities.quality.utils.math.MomentAccumulator;
 import uk.ac.ebi.pride.utilities.quality.utils.math.RobustMath;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * CrossCorrFeature is the class that provides a method to calculate
@@ -20,120 +23,145 @@ import java.util.Map;
  */
 public class CrossCorrFeature implements FeatureCalculator{
 
-    private Map<SpectrumFeatureType, Object> features = new HashMap<SpectrumFeatureType, Object>();
+    private static final Set<SpectrumFeatureType> FEATURE_TYPES = Collections.unmodifiableSet(EnumSet.of(SpectrumFeatureType.QUALSCORE_CROSSCORR_B_Y_IONS));
 
 	protected final static int TOLERANCE = 2;
 
-	protected static int getSingleHits(double target, boolean[] peakThere, int start){
-		int hits = 0;
-		for(int i = 0;i<peakThere.length;i++)
-			if(peakThere[i]){
-			boolean matched = false;
-			int mz = i+start;
-			int j = (int)(target - TOLERANCE - mz - start + 0.5);
-			if(j < 0) j =0;
-			int endj = (int)(target + TOLERANCE - mz - start + 0.5);
-			if(endj >= peakThere.length) endj = peakThere.length-1;
-			for(;j<=endj;j++)
-				if(peakThere[j])
-					hits++;
+	/**
+	 * Shifts of the precursor m/z used as decoys.
+	 */
+	private static final int[] DEVIATIONS = {-10, -15, -20, -25, -30, 10, 15, 20, 25, 30};
+
+	/**
+	 * Hits of singly charged b/y pairs for every target precursor: for every occupied bin, the occupied bins
+	 * within TOLERANCE of the complementary mass. The occupied bins are visited once for all the targets and
+	 * every window is counted in constant time with the index.
+	 */
+	protected static int[] getSingleHits(double[] targets, MassBinIndex index){
+		int start = index.getStart();
+		int[] hits = new int[targets.length];
+		for(int k = 0; k < index.getOccupiedCount(); k++){
+			int mz = index.getOccupiedBin(k) + start;
+			for(int t = 0; t < targets.length; t++){
+				int j = (int)(targets[t] - TOLERANCE - mz - start + 0.5);
+				int endj = (int)(targets[t] + TOLERANCE - mz - start + 0.5);
+				hits[t] += index.count(j, endj);
+			}
 		}
 		return hits;
 	}
 
-	protected static int getDoubleHits(double target, boolean[] peakThere, int start){
-
-        int hits = 0;
-		for(int i = 0;i<peakThere.length;i++)
-			if(peakThere[i])
-			{
-				boolean matched = false;
-				double mass = (i+start)-1;
-				double secondMz = ((target * 2 - 2) - mass) + 1;
+	/**
+	 * Hits of doubly charged b/y pairs for every target precursor: occupied bins with an occupied bin within
+	 * TOLERANCE of the complementary mass. The bin after a hit is not checked for that target.
+	 */
+	protected static int[] getDoubleHits(double[] targets, MassBinIndex index){
+		int start = index.getStart();
+		int[] hits = new int[targets.length];
+		int[] skipped = newSkippedBins(targets.length);
+		for(int k = 0; k < index.getOccupiedCount(); k++){
+			int i = index.getOccupiedBin(k);
+			double mass = (i+start)-1;
+			for(int t = 0; t < targets.length; t++){
+				if(skipped[t] == i)
+					continue;
+				double secondMz = ((targets[t] * 2 - 2) - mass) + 1;
 				int j = (int)(secondMz - TOLERANCE - start + 0.5); // what are the 0.5?
-				if(j < 0) j =0;
 				int endj = (int)(secondMz + TOLERANCE - start + 0.5);
-				if(endj >= peakThere.length) endj = peakThere.length-1;
-				for(;j<=endj;j++)
-					if(peakThere[j])
-						matched = true;
-				if(matched)
-				{
-					hits ++;
-					i++;
+				if(index.count(j, endj) > 0){
+					hits[t]++;
+					skipped[t] = i + 1;
 				}
 			}
+		}
 		return hits;
 	}
 
-	protected static int getTripleHits(double target, boolean[] peakThere, int start)
+	/**
+	 * Hits of triply charged precursors, a doubly charged fragment complementary to a singly charged one, for
+	 * every target precursor. The bin after a hit is not checked for that target.
+	 */
+	protected static int[] getTripleHits(double[] targets, MassBinIndex index)
 	{
-		int hits = 0;
-		for(int i = 0;i<peakThere.length;i++)
-			if(peakThere[i])
-			{
-				boolean matched = false;
-				int mz = i+start;
-				double secondMass = (target * 3 - 3) - (mz-1);
+		int start = index.getStart();
+		int[] hits = new int[targets.length];
+		int[] skipped = newSkippedBins(targets.length);
+		for(int k = 0; k < index.getOccupiedCount(); k++){
+			int i = index.getOccupiedBin(k);
+			int mz = i+start;
+			for(int t = 0; t < targets.length; t++){
+				if(skipped[t] == i)
+					continue;
+				double secondMass = (targets[t] * 3 - 3) - (mz-1);
 				int j = (int)((secondMass+2)/2.0 - TOLERANCE - start + 0.5);
-				if(j < 0) j =0;
 				int endj = (int)((secondMass+2)/2.0 + TOLERANCE - start + 0.5);
-				if(endj >= peakThere.length) endj = peakThere.length-1;
-				for(;j<=endj;j++)
-					if(peakThere[j])
-						matched = true;
-					if(matched){
-						i++;
-						hits++;
-					}
-
+				if(index.count(j, endj) > 0){
+					hits[t]++;
+					skipped[t] = i + 1;
+				}
 			}
+		}
 		return hits;
 	}
 
+	private static int[] newSkippedBins(int targets){
+		int[] skipped = new int[targets];
+		Arrays.fill(skipped, -1);
+		return skipped;
+	}
+
     private static CrossCorrFeature instance = null;
 
     protected CrossCorrFeature(){
-        features.put(SpectrumFeatureType.QUALSCORE_CROSSCORR_B_Y_IONS, 0);
     }
 
-    public static CrossCorrFeature getInstance(){
+    public static synchronized CrossCorrFeature getInstance(){
         if(instance == null)
             instance = new CrossCorrFeature();
         return instance;
     }
 
     @Override
-    public Map<SpectrumFeatureType, Object> computeFeature(Spectrum spectrum, int charge) {
-
-        Map<SpectrumFeatureType, Object> features = new HashMap<SpectrumFeatureType, Object>();
+    public Set<SpectrumFeatureType> getFeatureTypes() {
+        return FEATURE_TYPES;
+    }
 
-        double[][] peakList = spectrum.getMassIntensityMap();
+    /**
+     * Default value of the feature, returned when the peak list is empty.
+     */
+    private static void setDefaultFeatures(FeatureVector features, int subset){
+        features.set(subset, SpectrumFeatureType.QUALSCORE_CROSSCORR_B_Y_IONS, 0);
+    }
 
-        if (peakList.length == 0)
-            return features;
+    /**
+     * Compare the hits of the real precursor with the hits of the precursors shifted by every deviation in DEVIATIONS
+     * (decoys). The mass bin index is built once and the hits of the real precursor and of all the decoys are counted
+     * together, once for every charge hypothesis. Singly charged spectra are scored as singly charged, the others as
+     * the best of the doubly and triply charged hypotheses.
+     */
+    @Override
+    public void computeFeature(PeakList peaks, int charge, FeatureVector features, int subset) {
 
-        int minMz = (int) peakList[0][0];
-        int maxMz = (int) (peakList[peakList.length - 1][0] + 1);
+        setDefaultFeatures(features, subset);
 
-        boolean[] peakThere = new boolean[maxMz - minMz + 1];
+        if (peaks == null || peaks.isEmpty())
+            return;
 
-        for (int i = 0; i < peakList.length; i++)
-            peakThere[(int) (peakList[i][0] - minMz)] = true;
+        MassBinIndex index = new MassBinIndex(peaks.getMzArray());
 
-        int[] dev = new int[]{-10, -15, -20, -25, -30, 10, 15, 20, 25, 30};
+        double precursorMZ = peaks.getPrecursorMz();
 
-        double precursorMZ = DataAccessUtilities.getPrecursorMz(spectrum);
+        // the real precursor first and then the decoys
+        double[] targets = new double[DEVIATIONS.length + 1];
+        targets[0] = precursorMZ;
+        for (int i = 0; i < DEVIATIONS.length; i++)
+            targets[i + 1] = precursorMZ + DEVIATIONS[i];
 
         if (charge == 1) {
 
-            int realHits = getSingleHits(precursorMZ, peakThere, minMz);
-
-            Integer[] values = new Integer[dev.length];
-            for (int i = 0; i < dev.length; i++)
-                values[i] = new Integer(getSingleHits(precursorMZ + dev[i], peakThere, minMz));
-
-            RobustMath.NormalDistributionParameters ndp = RobustMath.normalEstimate(values);
+            int[] hits = getSingleHits(targets, index);
+            int realHits = hits[0];
+            RobustMath.NormalDistributionParameters ndp = getDecoyDistribution(hits);
 
             double z;
 
@@ -147,56 +175,41 @@ public class CrossCorrFeature implements FeatureCalculator{
             } else
                 z = (realHits - ndp.mean) / ndp.stddev;
 
-            features.put(SpectrumFeatureType.QUALSCORE_CROSSCORR_B_Y_IONS, z);
+            features.set(subset, SpectrumFeatureType.QUALSCORE_CROSSCORR_B_Y_IONS, z);
 
-            return features;
+            return;
         }
 
-        // Check doubly / triply charged
-        int realHits = getDoubleHits(precursorMZ, peakThere, minMz);
-
-        Integer[] values = new Integer[dev.length];
-
-        for (int i = 0; i < dev.length; i++)
-            values[i] = new Integer(getDoubleHits(precursorMZ + dev[i], peakThere, minMz));
+        // Check doubly / triply charged, the best of both hypotheses is the score
+        double z2 = getMultipleChargeScore(getDoubleHits(targets, index));
+        double z3 = getMultipleChargeScore(getTripleHits(targets, index));
 
-        RobustMath.NormalDistributionParameters ndp = RobustMath.normalEstimate(values);
-
-        double z2;
+        features.set(subset, SpectrumFeatureType.QUALSCORE_CROSSCORR_B_Y_IONS, Math.max(z2, z3));
+    }
 
+    /**
+     * Score of the real precursor against the decoys for the doubly and triply charged hypotheses.
+     * @param hits hits of the real precursor followed by the hits of the decoys
+     */
+    private static double getMultipleChargeScore(int[] hits){
+        int realHits = hits[0];
+        RobustMath.NormalDistributionParameters ndp = getDecoyDistribution(hits);
         if (realHits == 0 && ndp.mean < 0.01)
-            z2 = 0;
-        else {
-            if (ndp.stddev > 0.3)
-                z2 = (realHits - ndp.mean) / ndp.stddev;
-            else
-                z2 = (realHits - ndp.mean) * 3;
-
-            realHits = getTripleHits(precursorMZ, peakThere, minMz);
-            for (int i = 0; i < dev.length; i++)
-                values[i] = new Integer(getTripleHits(precursorMZ + dev[i], peakThere, minMz));
-
-            ndp = RobustMath.normalEstimate(values);
-
-            double z3;
-            if (realHits == 0 && ndp.mean < 0.01)
-                z3 = 0;
-            else {
-                if (ndp.stddev > 0.3)
-                    z3 = (realHits - ndp.mean) / ndp.stddev;
-                else
-                    z3 = (realHits - ndp.mean) * 3;
-            }
-
-            if (z3 > z2) {
-                features.put(SpectrumFeatureType.QUALSCORE_CROSSCORR_B_Y_IONS, z3);
-                return features;
-            } else {
-                features.put(SpectrumFeatureType.QUALSCORE_CROSSCORR_B_Y_IONS, z3);
-                return features;
-            }
-        }
-        return features;
+            return 0;
+        if (ndp.stddev > 0.3)
+            return (realHits - ndp.mean) / ndp.stddev;
+        return (realHits - ndp.mean) * 3;
+    }
+
+    /**
+     * @param hits hits of the real precursor followed by the hits of the decoys
+     * @return distribution of the hits of the decoys
+     */
+    private static RobustMath.NormalDistributionParameters getDecoyDistribution(int[] hits){
+        MomentAccumulator decoys = new MomentAccumulator();
+        for (int i = 1; i < hits.length; i++)
+            decoys.add(hits[i]);
+        return decoys.getParameters();
     }
 
 }
@@ -1,9 +1,9 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.features;
 
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
 
-import java.util.Map;
+import java.util.Set;
 
 /**
  * @author ypriverol
@@ -11,10 +11,18 @@ import java.util.Map;
 public interface FeatureCalculator {
     /**
      * Compute the features for an spectrum knowing the charge of it. This Interface allow to define a common structure to retrieve
-     * information from spectra.
-     * @param spectrum Spectrum
+     * information from spectra. The peak list can be shared with other calculators and must not be modified.
+     * Every feature of getFeatureTypes is written in its slot of the vector, the ones not in the schema are ignored.
+     * @param peaks PeakList of the spectrum, or of a subset of its peaks
      * @param charge charge
-     * @return Map with SpectrumFeatureType and the corresponding value it can be double or integer or a List
+     * @param features FeatureVector where the features are written
+     * @param subset index (starting in 1) of the peak list subset, it selects the slots of the features
      */
-    public Map<SpectrumFeatureType, Object> computeFeature(Spectrum spectrum, int charge);
+    public void computeFeature(PeakList peaks, int charge, FeatureVector features, int subset);
+
+    /**
+     * The features computed by this calculator, used to decide which calculators are needed for a set of features.
+     * @return Set of the SpectrumFeatureType that computeFeature can return
+     */
+    public Set<SpectrumFeatureType> getFeatureTypes();
 }
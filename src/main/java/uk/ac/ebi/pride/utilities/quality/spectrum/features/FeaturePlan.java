@@ -0,0 +1,78 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.features;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The peak list subsets and feature calculators that SpectrumFeatureGenerator runs for a spectrum. A plan is
+ * created by SpectrumFeatureGenerator.createPlan from the features requested, so the selectors and calculators
+ * whose features are not needed are skipped. The subsets keep the index they have when all the features are
+ * computed. The plan also has the FeatureSchema of all the features it computes, the layout of its FeatureVector.
+ *
+ * @author ypriverol
+ */
+public class FeaturePlan {
+
+    /**
+     * For every subset (index - 1), the calculators of the subset that must be run.
+     */
+    private final boolean[][] calculators;
+
+    private final List<Integer> subsets;
+
+    private FeatureSchema schema;
+
+    FeaturePlan(boolean[][] calculators) {
+        this.calculators = calculators;
+        List<Integer> computed = new ArrayList<Integer>();
+        for (int i = 0; i < calculators.length; i++) {
+            for (boolean calculator : calculators[i]) {
+                if (calculator) {
+                    computed.add(i + 1);
+                    break;
+                }
+            }
+        }
+        this.subsets = Collections.unmodifiableList(computed);
+    }
+
+    /**
+     * @param subset index (starting in 1) of the peak list subset
+     * @return true if any feature is computed on the subset
+     */
+    public boolean isSubsetComputed(int subset) {
+        return subsets.contains(subset);
+    }
+
+    /**
+     * @param subset index (starting in 1) of the peak list subset
+     * @param calculator position of the calculator among the calculators of the subset
+     * @return true if the calculator is run on the subset
+     */
+    public boolean isCalculatorComputed(int subset, int calculator) {
+        return calculators[subset - 1][calculator];
+    }
+
+    /**
+     * @return index of the peak list subsets with at least one feature computed, in ascending order
+     */
+    public List<Integer> getSubsets() {
+        return subsets;
+    }
+
+    /**
+     * @return layout of the features computed by the plan
+     */
+    public FeatureSchema getSchema() {
+        return schema;
+    }
+
+    void setSchema(FeatureSchema schema) {
+        this.schema = schema;
+    }
+
+    public boolean isEmpty() {
+        return subsets.isEmpty();
+    }
+}
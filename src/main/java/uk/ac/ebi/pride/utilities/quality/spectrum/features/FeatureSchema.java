@@ -0,0 +1,133 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.features;
+
+import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Fixed layout of the features of a spectrum: every column (slot) is a feature computed on a peak list subset.
+ * The columns are ordered by subset and, inside a subset, in the order of SpectrumFeatureType. Every subset also
+ * has the ProcessingType of its selector, so the columns can be named without knowing the subset indices.
+ *
+ * A schema is created by SpectrumFeatureGenerator.createSchema for the features of a FeaturePlan.
+ *
+ * @author ypriverol
+ */
+public class FeatureSchema {
+
+    private final int[] subsets;
+
+    private final SpectrumFeatureType[] featureTypes;
+
+    private final ProcessingType[] processingTypes;
+
+    /**
+     * slots[subset - 1][feature ordinal] is the slot of the feature, -1 when it is not in the schema.
+     */
+    private final int[][] slots;
+
+    /**
+     * @param subsets index (starting in 1) of the peak list subset of every column
+     * @param featureTypes feature of every column
+     * @param processingTypes ProcessingType of the selector of the subset of every column, the elements can be null
+     */
+    public FeatureSchema(int[] subsets, SpectrumFeatureType[] featureTypes, ProcessingType[] processingTypes) {
+        if (subsets.length != featureTypes.length || subsets.length != processingTypes.length)
+            throw new IllegalArgumentException("The subsets, features and processing types of the columns have different length");
+        this.subsets = subsets.clone();
+        this.featureTypes = featureTypes.clone();
+        this.processingTypes = processingTypes.clone();
+
+        int maxSubset = 0;
+        for (int subset : subsets) {
+            if (subset < 1)
+                throw new IllegalArgumentException("Wrong peak list subset: " + subset);
+            maxSubset = Math.max(maxSubset, subset);
+        }
+        slots = new int[maxSubset][SpectrumFeatureType.values().length];
+        for (int[] subsetSlots : slots)
+            Arrays.fill(subsetSlots, -1);
+        for (int slot = 0; slot < subsets.length; slot++) {
+            if (slots[subsets[slot] - 1][featureTypes[slot].ordinal()] != -1)
+                throw new IllegalArgumentException("Repeated column: " + getColumnName(slot));
+            slots[subsets[slot] - 1][featureTypes[slot].ordinal()] = slot;
+        }
+    }
+
+    /**
+     * @return number of columns
+     */
+    public int size() {
+        return subsets.length;
+    }
+
+    /**
+     * @param subset index (starting in 1) of the peak list subset
+     * @param featureType feature
+     * @return slot of the feature computed on the subset, -1 if it is not in the schema
+     */
+    public int getSlot(int subset, SpectrumFeatureType featureType) {
+        if (subset < 1 || subset > slots.length)
+            return -1;
+        return slots[subset - 1][featureType.ordinal()];
+    }
+
+    public int getSubset(int slot) {
+        return subsets[slot];
+    }
+
+    public SpectrumFeatureType getFeatureType(int slot) {
+        return featureTypes[slot];
+    }
+
+    /**
+     * @return ProcessingType of the selector of the subset, null if the selector has no ProcessingType
+     */
+    public ProcessingType getProcessingType(int slot) {
+        return processingTypes[slot];
+    }
+
+    /**
+     * @return name of the column, FEATURE[subset] as in FeatureTableWriter
+     */
+    public String getColumnName(int slot) {
+        return featureTypes[slot] + "[" + subsets[slot] + "]";
+    }
+
+    /**
+     * Create an empty Weka dataset with one numeric attribute per column, named as the column.
+     * @param relation name of the dataset
+     * @param capacity initial capacity of the dataset
+     * @return Instances for the FeatureVector of this schema
+     */
+    public Instances createInstances(String relation, int capacity) {
+        ArrayList<Attribute> attributes = new ArrayList<Attribute>(size());
+        for (int slot = 0; slot < size(); slot++)
+            attributes.add(new Attribute(getColumnName(slot)));
+        return new Instances(relation, attributes, capacity);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        FeatureSchema that = (FeatureSchema) o;
+
+        return Arrays.equals(subsets, that.subsets)
+                && Arrays.equals(featureTypes, that.featureTypes)
+                && Arrays.equals(processingTypes, that.processingTypes);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(subsets);
+        result = 31 * result + Arrays.hashCode(featureTypes);
+        result = 31 * result + Arrays.hashCode(processingTypes);
+        return result;
+    }
+}
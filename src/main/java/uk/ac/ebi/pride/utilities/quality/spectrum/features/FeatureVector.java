@@ -0,0 +1,117 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.features;
+
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Features of one spectrum in the fixed layout of a FeatureSchema, stored as primitive values in one array. The
+ * calculators write every feature in its slot, the features that are not in the schema are ignored, and the
+ * features not computed are NaN (the missing value of Weka).
+ *
+ * A vector can be reused for several spectra with clear, so the features of a stream of spectra are computed
+ * without creating any object per feature.
+ *
+ * @author ypriverol
+ */
+public class FeatureVector {
+
+    private final FeatureSchema schema;
+
+    private final double[] values;
+
+    public FeatureVector(FeatureSchema schema) {
+        this.schema = schema;
+        this.values = new double[schema.size()];
+        clear();
+    }
+
+    public FeatureSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return number of slots, the size of the schema
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Set all the features to NaN.
+     */
+    public void clear() {
+        Arrays.fill(values, Double.NaN);
+    }
+
+    public double get(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * @param subset index (starting in 1) of the peak list subset
+     * @param featureType feature
+     * @return value of the feature, NaN if it is not in the schema or it has not been computed
+     */
+    public double get(int subset, SpectrumFeatureType featureType) {
+        int slot = schema.getSlot(subset, featureType);
+        return (slot != -1) ? values[slot] : Double.NaN;
+    }
+
+    public void set(int slot, double value) {
+        values[slot] = value;
+    }
+
+    /**
+     * Set the value of a feature, nothing is done if the feature is not in the schema.
+     * @param subset index (starting in 1) of the peak list subset
+     * @param featureType feature
+     * @param value value of the feature
+     */
+    public void set(int subset, SpectrumFeatureType featureType, double value) {
+        int slot = schema.getSlot(subset, featureType);
+        if (slot != -1)
+            values[slot] = value;
+    }
+
+    /**
+     * @return the array with the values, by slot. It is not a copy and it changes when the vector is reused
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return the features keyed by peak list subset, as returned by SpectrumFeatureGenerator.computeFeatureForPeakList
+     */
+    public Map<Integer, Map<SpectrumFeatureType, Object>> toMap() {
+        Map<Integer, Map<SpectrumFeatureType, Object>> features = new HashMap<Integer, Map<SpectrumFeatureType, Object>>();
+        for (int slot = 0; slot < values.length; slot++) {
+            Map<SpectrumFeatureType, Object> subsetFeatures = features.get(schema.getSubset(slot));
+            if (subsetFeatures == null) {
+                subsetFeatures = new HashMap<SpectrumFeatureType, Object>();
+                features.put(schema.getSubset(slot), subsetFeatures);
+            }
+            subsetFeatures.put(schema.getFeatureType(slot), values[slot]);
+        }
+        return features;
+    }
+
+    /**
+     * Create a Weka Instance with a copy of the values.
+     * @param dataset Instances created with FeatureSchema.createInstances, the attributes are the slots of the schema
+     * @return Instance of the dataset with weight 1, it is not added to the dataset
+     */
+    public Instance toInstance(Instances dataset) {
+        if (dataset.numAttributes() != values.length)
+            throw new IllegalArgumentException("The dataset has " + dataset.numAttributes() + " attributes and the vector " + values.length + " features");
+        Instance instance = new DenseInstance(1, values.clone());
+        instance.setDataset(dataset);
+        return instance;
+    }
+}
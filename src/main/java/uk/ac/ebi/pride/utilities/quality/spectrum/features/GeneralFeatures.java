@@ -1,13 +1,14 @@
 
 package uk.ac.ebi.pride.utilities.quality.spectrum.features;
 
-import uk.ac.ebi.pride.utilities.data.controller.DataAccessUtilities;
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+import uk.ac.ebi.pride.utilities.quality.utils.math.MomentAccumulator;
 import uk.ac.ebi.pride.utilities.quality.utils.math.RobustMath;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * ParameterGen generates features, and is called by MasterFeatureGenerator
@@ -33,61 +34,109 @@ import java.util.Map;
  */
 public class GeneralFeatures implements FeatureCalculator{
 
-    private static GeneralFeatures instance;
+    private static final Set<SpectrumFeatureType> FEATURE_TYPES = Collections.unmodifiableSet(EnumSet.of(
+            SpectrumFeatureType.QUALSCORE_NUM_PEAKS,
+            SpectrumFeatureType.QUALSCORE_AVG_BY_INTENSITY,
+            SpectrumFeatureType.QUALSCORE_STD_INTENSITY,
+            SpectrumFeatureType.QUALSCORE_MZ_95_INTENSITY,
+            SpectrumFeatureType.QUALSCORE_MZ_50_INTENSITY,
+            SpectrumFeatureType.QUALSCORE_TIC_MZ,
+            SpectrumFeatureType.QUALSCORE_MASS_GAP,
+            SpectrumFeatureType.QUALSCORE_NEIGHGOR_2DA));
 
-    private Map<SpectrumFeatureType, Object> features = new HashMap<SpectrumFeatureType, Object>();
+    private static GeneralFeatures instance;
 
     protected  GeneralFeatures(){
-        features.put(SpectrumFeatureType.QUALSCORE_NUM_PEAKS,         0);
-        features.put(SpectrumFeatureType.QUALSCORE_AVG_BY_INTENSITY,  0);
-        features.put(SpectrumFeatureType.QUALSCORE_STD_INTENSITY,     0);
-        features.put(SpectrumFeatureType.QUALSCORE_MZ_95_INTENSITY,   0);
-        features.put(SpectrumFeatureType.QUALSCORE_MZ_50_INTENSITY,   0);
-        features.put(SpectrumFeatureType.QUALSCORE_TIC_MZ,            0);
-        features.put(SpectrumFeatureType.QUALSCORE_MASS_GAP,          0);
-        features.put(SpectrumFeatureType.QUALSCORE_NEIGHGOR_2DA,      0);
     }
 
-    public static GeneralFeatures getInstance(){
+    /**
+     * Default values returned when there is no data.
+     */
+    private static void setDefaultFeatures(FeatureVector features, int subset){
+        features.set(subset, SpectrumFeatureType.QUALSCORE_NUM_PEAKS,         0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AVG_BY_INTENSITY,  0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_STD_INTENSITY,     0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_MZ_95_INTENSITY,   0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_MZ_50_INTENSITY,   0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_TIC_MZ,            0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_MASS_GAP,          0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_NEIGHGOR_2DA,      0);
+    }
+
+    public static synchronized GeneralFeatures getInstance(){
        if(instance == null)
            instance = new GeneralFeatures();
         return instance;
     }
 
     @Override
-    public Map<SpectrumFeatureType, Object> computeFeature(Spectrum spectrum, int charge) {
+    public Set<SpectrumFeatureType> getFeatureTypes() {
+        return FEATURE_TYPES;
+    }
+
+    @Override
+    public void computeFeature(PeakList peaks, int charge, FeatureVector features, int subset) {
 
-        Map<SpectrumFeatureType, Object> features = new HashMap<SpectrumFeatureType, Object>();
+        setDefaultFeatures(features, subset);
 
-        if (spectrum == null || spectrum.getMassIntensityMap().length == 0)
-            return features;
+        if (peaks == null || peaks.isEmpty())
+            return;
 
-        double[][] peakList = spectrum.getMassIntensityMap();
+        double[] mz = peaks.getMzArray();
+        double[] intensity = peaks.getIntensityArray();
 
         //Peak count
-        int peakCount = peakList.length;
+        int peakCount = mz.length;
+
+        /*
+         *   single pass over the peaks for the TIC (total ion current), the cumulative intensities, the moments of
+         *   the intensities and of the gap width between peaks, and the average number of neighbours surrounding
+         *   each peak within a mass range of +/- 2 Da
+         *     illustration below
+         *                   i   i  I     i  ii i  spectrum
+         *                   i  Xi  I   X i  ii i  X: 2 Da limits  I: current peak  i: other peaks
+         *                   1   b  e   4 5  67 8  peak numeration
+         *
+         *     e-b = 3-2 = 1  -> it means that the current peak I has one neighbour within +/- 2 Da
+         */
+        double[] cumulativeIntensity = new double[intensity.length + 1];
+        MomentAccumulator intensities = new MomentAccumulator();
+        MomentAccumulator gaps = new MomentAccumulator();
+        double outp_avgWithin2 = 0;
 
-        Double[] peaks = new Double[peakList.length];
+        int begin = 0;
+        int end = 0;
+        for (int i = 0; i < mz.length; i++){
 
-        // TIC total ion current
-        double totalIntensity = 0;
-        for (int i = 0; i < peakList.length; i++){
-            peaks[i] = new Double(peakList[i][1]); // save intensities
-            totalIntensity += peakList[i][1];
+            cumulativeIntensity[i + 1] = cumulativeIntensity[i] + intensity[i];
+            intensities.add(intensity[i]);
+            if (i > 0)
+                gaps.add(mz[i] - mz[i - 1]);
+
+            while (end < mz.length - 1 && mz[end + 1] - mz[i] < 2) // if next peak is closer than 2 Da from current peak
+                end++;
+            while (begin < i && mz[i] - mz[begin] > 2) // if last peak is further than 2 Da from current peak
+                begin++;
+
+            outp_avgWithin2 += end - begin;  // [FR] I removed the plus 1, results in linear offset, no effect on LDA performance
         }
 
+        // TIC total ion current
+        double totalIntensity = cumulativeIntensity[mz.length];
+
         // normal distribution parameters
         RobustMath.NormalDistributionParameters ndp;
-        ndp = RobustMath.normalEstimate(peaks);
+        ndp = intensities.getParameters();
 
         double avgIntensity      = ndp.mean;
         double sdIntensity       = ndp.stddev;
         double skewnessIntensity = ndp.skewness;
 
-        // signal range
-        double mzRange1 = getSmallestMassRangeContainingIntensity(peakList, 0.95 * totalIntensity);
+        // signal range, 95% and 50% of the intensity
+        double[] mzRanges = getSmallestMassRangesContainingIntensity(mz, cumulativeIntensity, new double[]{0.95 * totalIntensity, 0.50 * totalIntensity});
+        double mzRange1 = mzRanges[0];
 
-        double mzRange2 = getSmallestMassRangeContainingIntensity(peakList, 0.50 * totalIntensity);
+        double mzRange2 = mzRanges[1];
 
         // peak density
         double peakPerMz;
@@ -105,60 +154,27 @@ public class GeneralFeatures implements FeatureCalculator{
             ticPerMz = totalIntensity / mzRange1;
 
         // analyse gap width between peaks
-        peaks = new Double[peakList.length - 1];
-
-        for (int i = 0; i < peakList.length - 1; i++)
-            peaks[i] = new Double(peakList[i + 1][0] - peakList[i][0]);
-
         RobustMath.NormalDistributionParameters ndp2;
-        ndp2 = RobustMath.normalEstimate(peaks);
+        ndp2 = gaps.getParameters();
 
         double sdMassGap;
-        if (peakList.length == 1)
+        if (mz.length == 1)
             sdMassGap = 0;
         else
             sdMassGap = ndp2.stddev;
 
-        double outp_avgWithin2 = 0;
-
-        /*
-         *   average number of neighbours surrounding each peak within a mass range of +/- 2 Da
-         *     illustration below
-         *                   i   i  I     i  ii i  spectrum
-         *                   i  Xi  I   X i  ii i  X: 2 Da limits  I: current peak  i: other peaks
-         *                   1   b  e   4 5  67 8  peak numeration
-         *
-         *     e-b = 3-2 = 1  -> it means that the current peak I has one neighbour within +/- 2 Da
-         */
-
-        int begin = 0;
-        int end = 0;
-        for (int i = 0; i < peakList.length; i++){
-
-            while (end < peakList.length - 1 && peakList[end + 1][0] - peakList[i][0] < 2) // if next peak is closer than 2 Da from current peak
-                end++;
-            while (begin < i && peakList[i][0] - peakList[begin][0] > 2) // if last peak is further than 2 Da from current peak
-                begin++;
-
-            outp_avgWithin2 += end - begin;  // [FR] I removed the plus 1, results in linear offset, no effect on LDA performance
-        }
-
-        outp_avgWithin2 /= peakList.length;
-
-        double precursorMZ = DataAccessUtilities.getPrecursorMz(spectrum);
-
-        features.put(SpectrumFeatureType.QUALSCORE_NUM_PEAKS, Math.sqrt(peakCount));
-        features.put(SpectrumFeatureType.QUALSCORE_AVG_BY_INTENSITY,  Math.log(avgIntensity + 1));
-        features.put(SpectrumFeatureType.QUALSCORE_STD_INTENSITY, Math.log(sdIntensity + 1));
-        features.put(SpectrumFeatureType.QUALSCORE_MZ_95_INTENSITY, mzRange1 / precursorMZ);
-        features.put(SpectrumFeatureType.QUALSCORE_MZ_50_INTENSITY, mzRange2 / precursorMZ);
-        features.put(SpectrumFeatureType.QUALSCORE_TIC_MZ, Math.log(ticPerMz + 1E-4));
-        features.put(SpectrumFeatureType.QUALSCORE_MASS_GAP, Math.log(sdMassGap + 1E-4));
-        features.put(SpectrumFeatureType.QUALSCORE_NEIGHGOR_2DA, outp_avgWithin2);
-
-        return features;
+        outp_avgWithin2 /= mz.length;
 
+        double precursorMZ = peaks.getPrecursorMz();
 
+        features.set(subset, SpectrumFeatureType.QUALSCORE_NUM_PEAKS, Math.sqrt(peakCount));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AVG_BY_INTENSITY,  Math.log(avgIntensity + 1));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_STD_INTENSITY, Math.log(sdIntensity + 1));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_MZ_95_INTENSITY, mzRange1 / precursorMZ);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_MZ_50_INTENSITY, mzRange2 / precursorMZ);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_TIC_MZ, Math.log(ticPerMz + 1E-4));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_MASS_GAP, Math.log(sdMassGap + 1E-4));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_NEIGHGOR_2DA, outp_avgWithin2);
     }
 
 	protected double[] getDefaults() {
@@ -167,29 +183,40 @@ public class GeneralFeatures implements FeatureCalculator{
 		return new double[] {0, 10, 10, 0, 0, -4, 4, 1 };
 	}
 
-	private double getSmallestMassRangeContainingIntensity(double[][] peakList, double targetIntensity) {
-
-		double currentIntensitySum = peakList[0][1];
-		int firstPeak = 0;
-		int lastPeak = 0;
-
-		while (currentIntensitySum < targetIntensity) {
-                    currentIntensitySum += peakList[++lastPeak][1];
-		}
-
-		double smallestMassRange = peakList[lastPeak][0] - peakList[firstPeak][0];
-                
-		// smallest mass range in which 95 % of intensity is.
-		while (lastPeak < peakList.length - 1) {
-                    currentIntensitySum += peakList[++lastPeak][1];
-                    while (firstPeak < peakList.length && (currentIntensitySum - peakList[firstPeak][1] >= targetIntensity)) {
-                        currentIntensitySum -= peakList[firstPeak++][1];
-                    }
-                    if (peakList[lastPeak][0] - peakList[firstPeak][0] < smallestMassRange) {
-                        smallestMassRange = peakList[lastPeak][0] - peakList[firstPeak][0];
-                    }
+	/**
+	 * Smallest m/z ranges of consecutive peaks that contain at least every target intensity, all of them in a
+	 * single sweep of the last peak of the range. The intensity of a range of peaks is taken from the cumulative
+	 * intensities.
+	 * @param mz m/z values in ascending order
+	 * @param cumulativeIntensity cumulativeIntensity[k] is the intensity of the first k peaks
+	 * @param targetIntensities intensity that the ranges must contain, at most the total intensity
+	 * @return smallest mass range of every target intensity
+	 */
+	private static double[] getSmallestMassRangesContainingIntensity(double[] mz, double[] cumulativeIntensity, double[] targetIntensities) {
+
+		double[] smallestMassRanges = new double[targetIntensities.length];
+		int[] firstPeaks = new int[targetIntensities.length];
+		for (int t = 0; t < targetIntensities.length; t++)
+			smallestMassRanges[t] = Double.POSITIVE_INFINITY;
+
+		for (int lastPeak = 0; lastPeak < mz.length; lastPeak++) {
+			for (int t = 0; t < targetIntensities.length; t++) {
+				int firstPeak = firstPeaks[t];
+				if (smallestMassRanges[t] == Double.POSITIVE_INFINITY) {
+					// the first range starts in the first peak and ends when it has enough intensity
+					if (cumulativeIntensity[lastPeak + 1] < targetIntensities[t] && lastPeak < mz.length - 1)
+						continue;
+				} else {
+					// drop the first peaks while the rest of the range still has the intensity
+					while (firstPeak < lastPeak && cumulativeIntensity[lastPeak + 1] - cumulativeIntensity[firstPeak + 1] >= targetIntensities[t])
+						firstPeak++;
+				}
+				firstPeaks[t] = firstPeak;
+				if (mz[lastPeak] - mz[firstPeak] < smallestMassRanges[t])
+					smallestMassRanges[t] = mz[lastPeak] - mz[firstPeak];
+			}
 		}
-		return smallestMassRange;
+		return smallestMassRanges;
 	}
 
 }
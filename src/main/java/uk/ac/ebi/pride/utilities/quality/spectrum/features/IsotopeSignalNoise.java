@@ -0,0 +1,98 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.features;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.IsotopePeaks;
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Isotope signal and noise of a spectrum: the number of peaks with a good isotope fit (signal), with a bad
+ * isotope fit (noise) and their ratio, with the double root transformation of OldSignalNoise. It is computed
+ * on the continuous score subset of IsotopePeaks, where the intensity of every peak is its isotope similarity
+ * score, so the signal and noise are counted from the same scores that the isotope subsets use, with the cut-off
+ * of the IsotopePeaks selector that computes the scores.
+ *
+ * @author ypriverol
+ */
+public class IsotopeSignalNoise implements FeatureCalculator{
+
+    private static final Set<SpectrumFeatureType> FEATURE_TYPES = Collections.unmodifiableSet(EnumSet.of(
+            SpectrumFeatureType.QUALSCORE_ISOTOPE_SIGN,
+            SpectrumFeatureType.QUALSCORE_ISOTOPE_NOISE,
+            SpectrumFeatureType.QUALSCORE_ISOTOPE_STN));
+
+    private static IsotopeSignalNoise instance = null;
+
+    private final double similarityScoreCutoff;
+
+    protected IsotopeSignalNoise(double similarityScoreCutoff){
+        this.similarityScoreCutoff = similarityScoreCutoff;
+    }
+
+    /**
+     * @return the calculator for the scores of IsotopePeaks with the default cut-off
+     */
+    public static synchronized IsotopeSignalNoise getInstance(){
+        if(instance == null)
+            instance = new IsotopeSignalNoise(IsotopePeaks.DEFAULT_SIMILARITY_SCORE_CUTOFF);
+        return instance;
+    }
+
+    /**
+     * @param selector IsotopePeaks with continuous score that computes the scores of the peaks
+     * @return the calculator that counts the signal and noise peaks with the cut-off of the selector
+     */
+    public static IsotopeSignalNoise getInstance(IsotopePeaks selector){
+        if(selector.getSimilarityScoreCutoff() == IsotopePeaks.DEFAULT_SIMILARITY_SCORE_CUTOFF)
+            return getInstance();
+        return new IsotopeSignalNoise(selector.getSimilarityScoreCutoff());
+    }
+
+    /**
+     * Default values returned when there is no data.
+     */
+    private static void setDefaultFeatures(FeatureVector features, int subset){
+        features.set(subset, SpectrumFeatureType.QUALSCORE_ISOTOPE_SIGN,  0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_ISOTOPE_NOISE, 0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_ISOTOPE_STN,   0);
+    }
+
+    @Override
+    public Set<SpectrumFeatureType> getFeatureTypes() {
+        return FEATURE_TYPES;
+    }
+
+    /**
+     * @param peaks peaks with the isotope similarity scores as intensities (IsotopePeaks with continuous score)
+     * @param charge charge
+     */
+    @Override
+    public void computeFeature(PeakList peaks, int charge, FeatureVector features, int subset) {
+
+        setDefaultFeatures(features, subset);
+
+        if (peaks == null || peaks.isEmpty())
+            return;
+
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < peaks.size(); i++) {
+            double score = peaks.getIntensity(i);
+            if (score < similarityScoreCutoff)       // good isotope fit
+                signal += 1;
+            else if (score > similarityScoreCutoff)  // bad isotope fit
+                noise += 1;
+        }
+
+        double stn = Math.sqrt(Math.sqrt(signal / (noise + 1))) * 10;  // double root transformation for distribution plot
+        signal = Math.sqrt(Math.sqrt(signal)) * 10;
+        noise = Math.sqrt(Math.sqrt(noise)) * 10;
+
+        features.set(subset, SpectrumFeatureType.QUALSCORE_ISOTOPE_SIGN, signal);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_ISOTOPE_NOISE, noise);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_ISOTOPE_STN, stn);
+    }
+}
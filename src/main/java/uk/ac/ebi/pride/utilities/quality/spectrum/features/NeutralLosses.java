@@ -1,12 +1,14 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.features;
 
 
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.SpectrumUtils;
 import uk.ac.ebi.pride.utilities.mol.NeutralLoss;
 import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * This class looks for mass differences
@@ -15,96 +17,99 @@ import java.util.Map;
 
 public class NeutralLosses implements FeatureCalculator{
 
+    private static final Set<SpectrumFeatureType> FEATURE_TYPES = Collections.unmodifiableSet(EnumSet.of(
+            SpectrumFeatureType.QUALSCORE_AMONIA_17_SC,
+            SpectrumFeatureType.QUALSCORE_AMONIA_17_AVGB,
+            SpectrumFeatureType.QUALSCORE_AMONIA_17_AVGMB,
+            SpectrumFeatureType.QUALSCORE_AMONIA_18_SC,
+            SpectrumFeatureType.QUALSCORE_AMONIA_18_AVGB,
+            SpectrumFeatureType.QUALSCORE_AMONIA_18_AVGMB,
+            SpectrumFeatureType.QUALSCORE_AMONIA_28_SC,
+            SpectrumFeatureType.QUALSCORE_AMONIA_28_AVGB,
+            SpectrumFeatureType.QUALSCORE_AMONIA_28_AVGMB));
 
-    private static NeutralLosses instance = null;
 
-    Map<SpectrumFeatureType, Object> features = new HashMap<SpectrumFeatureType, Object>();
+    private static final double TOLERANCE = 0.5;
+
+    private static final int REPEATS = 8;
+
+    /**
+     * Mass differences counted in every spectrum, new losses only need a new offset here.
+     */
+    private static final double[] OFFSETS = new double[]{REPEATS * (-5), 17, 18, 28};
+
+    private static final int BACKGROUND = 0;
+
+    private static final int AMMONIA = 1;
+
+    private static final int WATER = 2;
+
+    private static final int CARBON_MONOXIDE = 3;
+
+    private static NeutralLosses instance = null;
 
     protected NeutralLosses(){
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_17_SC,    0);
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_17_AVGB,  0);
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_17_AVGMB, 0);
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_18_SC,    0);
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_18_AVGB,  0);
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_18_AVGMB, 0);
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_28_SC,    0);
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_28_AVGB,  0);
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_28_AVGMB, 0);
     }
 
-    public static NeutralLosses getInstance(){
+    /**
+     * Default values, returned when the spectrum has no peaks.
+     */
+    private static void setDefaultFeatures(FeatureVector features, int subset){
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_17_SC,    0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_17_AVGB,  0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_17_AVGMB, 0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_18_SC,    0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_18_AVGB,  0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_18_AVGMB, 0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_28_SC,    0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_28_AVGB,  0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_28_AVGMB, 0);
+    }
+
+    public static synchronized NeutralLosses getInstance(){
         if(instance == null)
             instance = new NeutralLosses();
         return instance;
     }
 
+    @Override
+    public Set<SpectrumFeatureType> getFeatureTypes() {
+        return FEATURE_TYPES;
+    }
+
     /**
-     *
-     * @param spectrum Spectrum
+     * Count the peak pairs separated by the ammonia, water and carbon monoxide losses and by the background
+     * offset. All the mass differences are counted in a single sweep over the peaks.
+     * @param peaks PeakList
      * @param charge charge
-     * @return
+     * @param features FeatureVector where the features are written
+     * @param subset index of the peak list subset of the peaks
      */
     @Override
-    public Map<SpectrumFeatureType, Object> computeFeature(Spectrum spectrum, int charge) {
+    public void computeFeature(PeakList peaks, int charge, FeatureVector features, int subset) {
 
-        if (spectrum == null || spectrum.getMassIntensityMap().length == 0)
-            return features;
+        setDefaultFeatures(features, subset);
 
-        double[][] peakList = spectrum.getMassIntensityMap();
+        if (peaks == null || peaks.isEmpty())
+            return;
 
-        int repeats = 8;
-        double sum = 0, avg = 0;
+        // the m/z values of a PeakList are in ascending order, as the sweep expects
+        double[] counts = SpectrumUtils.countMassDifferences(peaks.getMzArray(), OFFSETS, TOLERANCE);
 
-
-        // average background neutral losses over several nonsense offsets such as -5, -10, -15, ...
-        for(int i = 1; i <= repeats; i++){
-            sum += lookForMassDifference(peakList, 0.5, repeats * (-5), false);
-        }
-        avg = sum/repeats;
+        // average background neutral losses over several nonsense offsets; the repeats always used the same
+        // offset (repeats * -5), so the average is the count of that offset
+        double avg = counts[BACKGROUND];
 
         // root transformation for a more gaussian distribution
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_17_SC,    Math.sqrt(lookForMassDifference(peakList, 0.5, 17, false)));
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_17_AVGB,  Math.sqrt(lookForMassDifference(peakList, 0.5, 17, false) / (avg + 1)));
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_17_AVGMB, Math.log(Math.abs(lookForMassDifference(peakList, 0.5, 17, false) - (avg)) + 1));
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_18_SC,    Math.sqrt(lookForMassDifference(peakList, 0.5, 18, false)));
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_18_AVGB,  Math.sqrt(lookForMassDifference(peakList, 0.5, 18, false) / (avg + 1)));
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_18_AVGMB, Math.log(Math.abs(lookForMassDifference(peakList, 0.5, 18, false) - (avg)) + 1));
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_28_SC,    Math.sqrt(lookForMassDifference(peakList, 0.5, 28, false)));
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_28_AVGB,  Math.sqrt(lookForMassDifference(peakList, 0.5, 28, false) / (avg + 1)));
-        features.put(SpectrumFeatureType.QUALSCORE_AMONIA_28_AVGMB, Math.log(Math.abs(lookForMassDifference(peakList, 0.5, 28, false) - (avg)) + 1));
-        return features;
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_17_SC,    Math.sqrt(counts[AMMONIA]));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_17_AVGB,  Math.sqrt(counts[AMMONIA] / (avg + 1)));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_17_AVGMB, Math.log(Math.abs(counts[AMMONIA] - (avg)) + 1));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_18_SC,    Math.sqrt(counts[WATER]));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_18_AVGB,  Math.sqrt(counts[WATER] / (avg + 1)));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_18_AVGMB, Math.log(Math.abs(counts[WATER] - (avg)) + 1));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_28_SC,    Math.sqrt(counts[CARBON_MONOXIDE]));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_28_AVGB,  Math.sqrt(counts[CARBON_MONOXIDE] / (avg + 1)));
+        features.set(subset, SpectrumFeatureType.QUALSCORE_AMONIA_28_AVGMB, Math.log(Math.abs(counts[CARBON_MONOXIDE] - (avg)) + 1));
     }
 
-    private static double lookForMassDifference(double[][] peakList, double masstolerance, double target_massdiff, boolean weighted) {
-        double count = 0;
-        int lower_compl;
-        double deviation = 0;
-        
-        // compare all against all peaks, but leave out those that are out of the mass tolerance anyway
-        lower_compl = 0;
-        
-        for (int i = 0; i < peakList.length; i++) {
-            for (int j = lower_compl; j < peakList.length; j++) {
-                deviation = peakList[j][0] - peakList[i][0] - target_massdiff;
-                if(Math.abs(deviation) < masstolerance){
-                    if(weighted == true){
-                        count += Math.sqrt(peakList[i][1] * peakList[j][1]);
-                    }else{
-                        count += 1;
-                    }
-                }else{
-                    
-                    // try to save time
-                    if(deviation < 0){
-                        lower_compl += 1; // no point in searching as low down as here
-                    }else{
-                        break; // no point in searching as far up as here
-                    }
-                }
-            }
-        }
-        
-        return count;
-    }
-    
 }
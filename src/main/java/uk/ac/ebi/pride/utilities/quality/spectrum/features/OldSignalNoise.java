@@ -11,27 +11,33 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.features;
 
 
- import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+ import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
  import uk.ac.ebi.pride.utilities.quality.spectrum.common.SpectrumUtils;
  import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
 
- import java.util.HashMap;
- import java.util.Map;
+ import java.util.Collections;
+ import java.util.EnumSet;
+ import java.util.Set;
 
  public class OldSignalNoise implements FeatureCalculator{
 
+     private static final Set<SpectrumFeatureType> FEATURE_TYPES = Collections.unmodifiableSet(EnumSet.of(SpectrumFeatureType.QUALSCORE_ISOTOPE_SIGN, SpectrumFeatureType.QUALSCORE_ISOTOPE_NOISE, SpectrumFeatureType.QUALSCORE_ISOTOPE_STN));
+
      @Override
-     public Map<SpectrumFeatureType, Object> computeFeature(Spectrum spectrum, int charge) {
-         Map<SpectrumFeatureType, Object> features = new HashMap<SpectrumFeatureType, Object>();
+     public Set<SpectrumFeatureType> getFeatureTypes() {
+         return FEATURE_TYPES;
+     }
 
-         double[][] peakList = spectrum.getMassIntensityMap();
+     @Override
+     public void computeFeature(PeakList peaks, int charge, FeatureVector features, int subset) {
+         double[] intensity = peaks.getIntensityArray();
          double score1 = 0;
          double score2 = 0;
          double score3 = 0;
-         double cutoff = SpectrumUtils.getTotIonCurrentCount(spectrum) / (spectrum.getMassIntensityMap().length + 1);
+         double cutoff = SpectrumUtils.getTotIonCurrentCount(peaks) / (peaks.size() + 1);
 
-         for (int i = 0; i < peakList.length; i++) {
-             if(peakList[i][1] > cutoff){ // signal peak
+         for (int i = 0; i < intensity.length; i++) {
+             if(intensity[i] > cutoff){ // signal peak
                  score1 += 1;
              }else{ // noise peak
                  score2 += 1;
@@ -42,10 +48,8 @@ package uk.ac.ebi.pride.utilities.quality.spectrum.features;
          score1 = Math.sqrt(Math.sqrt(score1)) * 10;                 // double root transformation for distribution plot
          score2 = Math.sqrt(Math.sqrt(score2)) * 10;                 // double root transformation for distribution plot
 
-         features.put(SpectrumFeatureType.QUALSCORE_ISOTOPE_SIGN, score1);
-         features.put(SpectrumFeatureType.QUALSCORE_ISOTOPE_NOISE, score2);
-         features.put(SpectrumFeatureType.QUALSCORE_ISOTOPE_STN, score3);
-
-         return features;
+         features.set(subset, SpectrumFeatureType.QUALSCORE_ISOTOPE_SIGN, score1);
+         features.set(subset, SpectrumFeatureType.QUALSCORE_ISOTOPE_NOISE, score2);
+         features.set(subset, SpectrumFeatureType.QUALSCORE_ISOTOPE_STN, score3);
      }
  }
@@ -9,17 +9,33 @@ package uk.ac.ebi.pride.utilities.quality.spectrum.features;
 
 
 
+import uk.ac.ebi.pride.utilities.data.controller.DataAccessUtilities;
 import uk.ac.ebi.pride.utilities.data.core.Spectrum;
 
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.AllPeaks;
 import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.IsotopePeaks;
 import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.NonNoisePeaks3;
 import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.PeakSelector;
+import uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors.PeakSelectorCache;
 import uk.ac.ebi.pride.utilities.quality.utils.Constants;
+import uk.ac.ebi.pride.utilities.quality.utils.PrideFeatureException;
+import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
 import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -38,6 +54,13 @@ import java.util.Map;
  *
  *
  *
+ * Every distinct peak list subset is computed once per spectrum, selectors with the same parameters share their
+ * result through a PeakSelectorCache. The isotope subsets (signal, noise and scores) share a single scoring of the
+ * peaks.
+ *
+ * The generator keeps no per-spectrum state, so a single instance can be shared by several threads; computeFeatures
+ * uses that to score a batch of spectra on a fixed pool of worker threads.
+ *
  * originally developed by M. Vogelzang
  * @author  ypriverol
  *
@@ -46,13 +69,32 @@ import java.util.Map;
 
 public class SpectrumFeatureGenerator{
 
+    /**
+     * Version of the values of the features, it has to be increased when a calculator or a selector changes the
+     * values it computes, so the features cached in a FeatureStore are computed again.
+     */
+    public static final int FEATURE_VERSION = 1;
+
     private PeakSelector[] firstSelector;
 
     private PeakSelector[] secondSelector;
 
-    private static SpectrumFeatureGenerator instance = null;
+    /**
+     * Feature calculators run on every peak list subset, by subset index - 1.
+     */
+    private FeatureCalculator[][] calculators;
 
-    private Map<Integer, Map<SpectrumFeatureType, Object>> features;
+    /**
+     * Plan that computes all the features.
+     */
+    private FeaturePlan allFeaturesPlan;
+
+    /**
+     * Number of spectra queued per worker thread in batch mode, it bounds the memory used by pending spectra.
+     */
+    private static final int PENDING_PER_THREAD = 16;
+
+    private static SpectrumFeatureGenerator instance = null;
 
 
     /**
@@ -67,18 +109,29 @@ public class SpectrumFeatureGenerator{
                 new AllPeaks(),                                            // Considering all peaks
                 new NonNoisePeaks3(5, 80, Constants.maxPeaksPer1000Da),    // changed to 80
                 new NonNoisePeaks3(5, 70, Constants.maxPeaksPer1000Da),    // changed to 70
-                new IsotopePeaks(20, false, true),                         // isotope signal, good isotope fit
-                new IsotopePeaks(20, false, false),                         // isotope noise, bad isotope fit
+                new IsotopePeaks(IsotopePeaks.DEFAULT_SIMILARITY_SCORE_CUTOFF, false, true),   // isotope signal, good isotope fit
+                new IsotopePeaks(IsotopePeaks.DEFAULT_SIMILARITY_SCORE_CUTOFF, false, false),  // isotope noise, bad isotope fit
         };
 
         // [FR] selectors (peak list subsets) used for sequence tags and other criteria
 
+        IsotopePeaks isotopeScores = new IsotopePeaks(IsotopePeaks.DEFAULT_SIMILARITY_SCORE_CUTOFF, true, true);
         secondSelector = new PeakSelector[] {
                         new NonNoisePeaks3(5, 70, Constants.maxPeaksPer1000Da), //optimized for aa Features (Selectors[0])
                         new NonNoisePeaks3(5, 70, Constants.maxPeaksPer1000Da), //optimized for ComplementFeatures (Selectors[1])
-                        new NonNoisePeaks3(5, 50, Constants.maxPeaksPer1000Da)  //optimized for NeutralLosses (Selectors[2])
+                        new NonNoisePeaks3(5, 50, Constants.maxPeaksPer1000Da), //optimized for NeutralLosses (Selectors[2])
+                        isotopeScores // isotope scores for IsotopeSignalNoise (Selectors[3])
         };
 
+        calculators = new FeatureCalculator[firstSelector.length + secondSelector.length][];
+        for (int i = 0; i < firstSelector.length; i++)
+            calculators[i] = new FeatureCalculator[]{GeneralFeatures.getInstance(), XXArea.getInstance()};
+        calculators[firstSelector.length]     = new FeatureCalculator[]{AATagFinder.getInstance()};
+        calculators[firstSelector.length + 1] = new FeatureCalculator[]{TripleChargedComplementarity.getInstance(), CrossCorrFeature.getInstance()};
+        calculators[firstSelector.length + 2] = new FeatureCalculator[]{NeutralLosses.getInstance()};
+        calculators[firstSelector.length + 3] = new FeatureCalculator[]{IsotopeSignalNoise.getInstance(isotopeScores)};
+
+        allFeaturesPlan = createPlan(null, null);
 
     }
 
@@ -86,7 +139,7 @@ public class SpectrumFeatureGenerator{
      * Public constructor of the singleton pattern
      * @return SpectrumFeatureGenerator
      */
-    public static SpectrumFeatureGenerator getInstance(){
+    public static synchronized SpectrumFeatureGenerator getInstance(){
         if(instance == null){
             instance = new SpectrumFeatureGenerator();
         }
@@ -98,43 +151,226 @@ public class SpectrumFeatureGenerator{
      * @return Feature Count for each Spectrum
      */
     public int getFeatureCount(){
-        return features.size();
+        return firstSelector.length + secondSelector.length;
+    }
+
+    /**
+     * Return the peak selector used to build a peak list subset.
+     * @param subset index (starting in 1) of the subset, as used in the computed features
+     * @return PeakSelector of the subset
+     */
+    public PeakSelector getSelector(int subset){
+        if(subset < 1 || subset > getFeatureCount())
+            throw new IllegalArgumentException("Wrong peak list subset: " + subset);
+        if(subset <= firstSelector.length)
+            return firstSelector[subset - 1];
+        return secondSelector[subset - firstSelector.length - 1];
+    }
+
+    /**
+     * Create the plan that computes only the given features: the peak list subsets without any of them are not
+     * selected and the calculators that do not produce any of them are not run.
+     * @param featureTypes features to be computed, null for all of them
+     * @param subsets index (starting in 1) of the peak list subsets where the features are computed, null for all of them
+     * @return FeaturePlan to be used with computeFeatureForPeakList
+     */
+    public FeaturePlan createPlan(Collection<SpectrumFeatureType> featureTypes, Collection<Integer> subsets){
+        boolean[][] computed = new boolean[calculators.length][];
+        for (int i = 0; i < calculators.length; i++) {
+            computed[i] = new boolean[calculators[i].length];
+            if (subsets != null && !subsets.contains(i + 1))
+                continue;
+            for (int j = 0; j < calculators[i].length; j++)
+                computed[i][j] = featureTypes == null || !Collections.disjoint(featureTypes, calculators[i][j].getFeatureTypes());
+        }
+        FeaturePlan plan = new FeaturePlan(computed);
+        plan.setSchema(createSchema(plan));
+        return plan;
+    }
+
+    /**
+     * Create the layout of the features computed by a plan, one column per feature and peak list subset.
+     * @param plan FeaturePlan created with createPlan
+     * @param featureTypes features in the layout, null for all the features computed by the plan
+     * @return FeatureSchema with the subsets in ascending order and the features in the order of SpectrumFeatureType
+     */
+    public FeatureSchema createSchema(FeaturePlan plan, Collection<SpectrumFeatureType> featureTypes){
+        FeatureSchema schema = plan.getSchema();
+        if (featureTypes == null)
+            return schema;
+        List<Integer> slots = new ArrayList<Integer>();
+        for (int slot = 0; slot < schema.size(); slot++)
+            if (featureTypes.contains(schema.getFeatureType(slot)))
+                slots.add(slot);
+        int[] subsets = new int[slots.size()];
+        SpectrumFeatureType[] features = new SpectrumFeatureType[slots.size()];
+        ProcessingType[] processingTypes = new ProcessingType[slots.size()];
+        for (int i = 0; i < slots.size(); i++) {
+            subsets[i] = schema.getSubset(slots.get(i));
+            features[i] = schema.getFeatureType(slots.get(i));
+            processingTypes[i] = schema.getProcessingType(slots.get(i));
+        }
+        return new FeatureSchema(subsets, features, processingTypes);
+    }
+
+    /**
+     * Layout of all the features computed by the calculators run in a plan.
+     */
+    private FeatureSchema createSchema(FeaturePlan plan){
+        List<Integer> subsets = new ArrayList<Integer>();
+        List<SpectrumFeatureType> features = new ArrayList<SpectrumFeatureType>();
+        List<ProcessingType> processingTypes = new ArrayList<ProcessingType>();
+        for (int subset : plan.getSubsets()) {
+            Set<SpectrumFeatureType> computed = EnumSet.noneOf(SpectrumFeatureType.class);
+            for (int j = 0; j < calculators[subset - 1].length; j++)
+                if (plan.isCalculatorComputed(subset, j))
+                    computed.addAll(calculators[subset - 1][j].getFeatureTypes());
+            ProcessingType processingType = ProcessingType.getProcessingType(getSelector(subset).getClass());
+            for (SpectrumFeatureType featureType : computed) {
+                subsets.add(subset);
+                features.add(featureType);
+                processingTypes.add(processingType);
+            }
+        }
+        int[] columnSubsets = new int[subsets.size()];
+        for (int i = 0; i < columnSubsets.length; i++)
+            columnSubsets[i] = subsets.get(i);
+        return new FeatureSchema(columnSubsets, features.toArray(new SpectrumFeatureType[features.size()]), processingTypes.toArray(new ProcessingType[processingTypes.size()]));
+    }
+
+    /**
+     * Compute the features of one spectrum. The result is keyed by the index (starting in 1) of the peak list subset
+     * used to compute the features. This method is reentrant and can be called concurrently.
+     * @param spectrum Spectrum
+     * @param charge precursor charge of the spectrum
+     * @return Features of the spectrum by peak list subset
+     */
+    public Map<Integer, Map<SpectrumFeatureType, Object>> computeFeatureForSpectrum(Spectrum spectrum, int charge) {
+        return computeFeatureForPeakList(PeakList.fromSpectrum(spectrum), charge);
+    }
+
+    /**
+     * Compute the features of the peak list of one spectrum, see computeFeatureForSpectrum. The peak list
+     * is only read, the subsets of peaks are views over its arrays.
+     * @param peaks PeakList of the spectrum
+     * @param charge precursor charge of the spectrum
+     * @return Features of the spectrum by peak list subset
+     */
+    public Map<Integer, Map<SpectrumFeatureType, Object>> computeFeatureForPeakList(PeakList peaks, int charge) {
+        return computeFeatureForPeakList(peaks, charge, allFeaturesPlan);
+    }
+
+    /**
+     * Compute the features of the spectrum selected by a plan, only the subsets of the plan are in the result.
+     * @param spectrum Spectrum
+     * @param charge precursor charge of the spectrum
+     * @param plan FeaturePlan created with createPlan
+     * @return Features of the spectrum by peak list subset
+     */
+    public Map<Integer, Map<SpectrumFeatureType, Object>> computeFeatureForSpectrum(Spectrum spectrum, int charge, FeaturePlan plan) {
+        return computeFeatureForPeakList(PeakList.fromSpectrum(spectrum), charge, plan);
+    }
+
+    /**
+     * Compute the features of the peak list selected by a plan, only the subsets of the plan are in the result.
+     * @param peaks PeakList of the spectrum
+     * @param charge precursor charge of the spectrum
+     * @param plan FeaturePlan created with createPlan
+     * @return Features of the spectrum by peak list subset
+     */
+    public Map<Integer, Map<SpectrumFeatureType, Object>> computeFeatureForPeakList(PeakList peaks, int charge, FeaturePlan plan) {
+        FeatureVector features = new FeatureVector(plan.getSchema());
+        computeFeatureVector(peaks, charge, plan, features);
+        return features.toMap();
     }
 
-    public Map<Integer, Map<SpectrumFeatureType, Object>> computeFeatureForSpectrum(Spectrum spectrum, int charge) throws CloneNotSupportedException {
-        
-        // [FR] Calculates features for standard peak list subsets
-        
-        Spectrum analysedSpectrum;
+    /**
+     * Compute the features of the peak list selected by a plan and write them in a FeatureVector. The vector is
+     * cleared first, so the same vector can be reused for every spectrum of a stream.
+     * @param peaks PeakList of the spectrum
+     * @param charge precursor charge of the spectrum
+     * @param plan FeaturePlan created with createPlan
+     * @param features FeatureVector with the schema of the plan, or with a schema of a subset of its features
+     */
+    public void computeFeatureVector(PeakList peaks, int charge, FeaturePlan plan, FeatureVector features) {
+
+        // [FR] Calculates features for standard peak list subsets and, after them, for the peak list subsets
+        // of sequence tags, complements and neutral losses (secondSelector)
 
-        features = new HashMap<Integer, Map<SpectrumFeatureType, Object>>();
-        
-        int n = 0;
-        GeneralFeatures generalFeatures = GeneralFeatures.getInstance();
+        features.clear();
 
-        for (int i = 0; i < firstSelector.length; i++) {
-            analysedSpectrum = firstSelector[i].transform(spectrum);
-            Map<SpectrumFeatureType, Object> values = generalFeatures.computeFeature(analysedSpectrum, charge);
-            values.putAll(XXArea.getInstance().computeFeature(analysedSpectrum,charge));
-            features.put(features.size() + 1, values);
+        PeakSelectorCache subsets = new PeakSelectorCache(peaks);
+
+        for (int subset : plan.getSubsets()) {
+            PeakList analysedSpectrum = subsets.transform(getSelector(subset));
+            for (int j = 0; j < calculators[subset - 1].length; j++)
+                if (plan.isCalculatorComputed(subset, j))
+                    calculators[subset - 1][j].computeFeature(analysedSpectrum, charge, features, subset);
         }
-        
-        // define separate peak list subsets for sequence tags and other amino acid mass features
+    }
 
-        Spectrum aaSpectrum          = secondSelector[0].transform(spectrum);		// this scan is optimized for aaFeatures
-        Map<SpectrumFeatureType, Object> aaScores = AATagFinder.getInstance().computeFeature(aaSpectrum, charge);
-        features.put(features.size() + 1, aaScores);
+    /**
+     * Compute the features of a batch of spectra using a fixed pool of worker threads. The charge of every spectrum
+     * is taken from its precursor. The spectra are read from the iterable while the workers compute the features,
+     * and only a bounded number of them is queued at any time.
+     * @param spectra Spectra to be scored
+     * @param parallelism Number of worker threads, 1 computes the features in the calling thread
+     * @return Features of every spectrum, in the same order as the input spectra
+     */
+    public List<Map<Integer, Map<SpectrumFeatureType, Object>>> computeFeatures(Iterable<Spectrum> spectra, int parallelism){
 
+        if(parallelism < 1)
+            throw new IllegalArgumentException("The parallelism must be at least 1, found: " + parallelism);
 
-        Spectrum complementSpectrum  = secondSelector[1].transform(spectrum);		// this scan is optimized for ComplementFeatures
-        Map<SpectrumFeatureType, Object> complementScores = TripleChargedComplementarity.getInstance().computeFeature(complementSpectrum, charge);
-        features.put(features.size() + 1, complementScores);
+        List<Map<Integer, Map<SpectrumFeatureType, Object>>> results = new ArrayList<Map<Integer, Map<SpectrumFeatureType, Object>>>();
 
-        Spectrum neutralLossSpectrum = secondSelector[2].transform(spectrum);		// this scan is optimized for NeutralLoss Features
-        Map<SpectrumFeatureType, Object> neutrallossescores = NeutralLosses.getInstance().computeFeature(neutralLossSpectrum, charge);
-        features.put(features.size() + 1, neutrallossescores);
+        if(parallelism == 1){
+            for(Spectrum spectrum: spectra)
+                results.add(computeFeatureWithPrecursorCharge(spectrum));
+            return results;
+        }
 
-        return features;
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try{
+            LinkedList<Future<Map<Integer, Map<SpectrumFeatureType, Object>>>> pending = new LinkedList<Future<Map<Integer, Map<SpectrumFeatureType, Object>>>>();
+            for(Spectrum spectrum: spectra){
+                pending.add(executor.submit(computeFeatureTask(spectrum)));
+                if(pending.size() >= parallelism * PENDING_PER_THREAD)
+                    results.add(getResult(pending.removeFirst()));
+            }
+            while(!pending.isEmpty())
+                results.add(getResult(pending.removeFirst()));
+        }finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    private Callable<Map<Integer, Map<SpectrumFeatureType, Object>>> computeFeatureTask(final Spectrum spectrum){
+        return new Callable<Map<Integer, Map<SpectrumFeatureType, Object>>>() {
+            @Override
+            public Map<Integer, Map<SpectrumFeatureType, Object>> call() {
+                return computeFeatureWithPrecursorCharge(spectrum);
+            }
+        };
+    }
+
+    private Map<Integer, Map<SpectrumFeatureType, Object>> computeFeatureWithPrecursorCharge(Spectrum spectrum){
+        Integer charge = DataAccessUtilities.getPrecursorCharge(spectrum.getPrecursors());
+        return computeFeatureForSpectrum(spectrum, charge != null ? charge : 0);
+    }
+
+    private static <T> T getResult(Future<T> future){
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PrideFeatureException("Feature computation has been interrupted", e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new PrideFeatureException("Error computing the features of the spectra", e.getCause());
+        }
     }
 
 }
@@ -1,12 +1,13 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.features;
 
 
-import uk.ac.ebi.pride.utilities.data.controller.DataAccessUtilities;
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.SpectrumUtils;
 import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * This class generates additional scores based on the complementarity
@@ -17,18 +18,23 @@ import java.util.Map;
 
 public class TripleChargedComplementarity implements FeatureCalculator{
 
-    private static TripleChargedComplementarity instance = null;
+    private static final Set<SpectrumFeatureType> FEATURE_TYPES = Collections.unmodifiableSet(EnumSet.of(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_SC, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_AB, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_SA));
 
-    private Map<SpectrumFeatureType, Object> features = new HashMap<SpectrumFeatureType, Object>();
+    private static TripleChargedComplementarity instance = null;
 
     protected TripleChargedComplementarity(){
-        //In some cases we need to return default values.
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_SC, 0);
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_AB, 0);
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_SA, 0);
     }
 
-    public static TripleChargedComplementarity getInstance(){
+    /**
+     * In some cases we need to return default values.
+     */
+    private static void setDefaultFeatures(FeatureVector features, int subset){
+        features.set(subset, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_SC, 0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_AB, 0);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_SA, 0);
+    }
+
+    public static synchronized TripleChargedComplementarity getInstance(){
         if(instance == null)
             instance = new TripleChargedComplementarity();
 
@@ -36,84 +42,73 @@ public class TripleChargedComplementarity implements FeatureCalculator{
     }
     
     @Override
-    public Map<SpectrumFeatureType, Object> computeFeature(Spectrum spectrum, int charge) {
+    public Set<SpectrumFeatureType> getFeatureTypes() {
+        return FEATURE_TYPES;
+    }
 
-        if (spectrum == null || spectrum.getMassIntensityMap().length == 0)
-            return features;
+    @Override
+    public void computeFeature(PeakList peaks, int charge, FeatureVector features, int subset) {
+
+        setDefaultFeatures(features, subset);
 
-        double[][] peakList = spectrum.getMassIntensityMap();
+        if (peaks == null || peaks.isEmpty())
+            return;
 
-        double[] count = new double[peakList.length];
-        double precursor_mz = DataAccessUtilities.getPrecursorMz(spectrum);
+        // the m/z values of a PeakList are in ascending order, as the sweeps of comparePeaks expect
+        double[] mz = peaks.getMzArray();
+
+        double precursor_mz = peaks.getPrecursorMz();
 
         int repeats = 8;
         double tolerance = 0.9;
         double score1 = 0, score2 = 0, score3 = 0, background_score = 0;
 
-        // average background complementarity count over several nonsense offsets such as -5, -10, -15, ...
+        // the precursor and several nonsense offsets such as -35, -25, ... +35 for the background
+        double[] precursors = new double[repeats + 1];
         for (int i = 1; i <= repeats; i++) {
-            background_score += comparePeaks(peakList, tolerance, precursor_mz + (i - repeats/2 - 0.5) * 10);
+            precursors[i] = precursor_mz + (i - repeats/2 - 0.5) * 10;
         }
+        precursors[0] = precursor_mz + 0;
+
+        double[] counts = comparePeaks(mz, tolerance, precursors);
 
-        score1 = Math.log(comparePeaks(peakList, tolerance, precursor_mz + 0) + 1E-4); // simple count
-        score2 = comparePeaks(peakList, tolerance, precursor_mz + 0) - (background_score / repeats); // subtract background to normalize
-        score3 = Math.sqrt(comparePeaks(peakList, tolerance, precursor_mz + 0) / ((background_score / repeats) + 1) ); // divide by background to normalize
+        // average background complementarity count over the nonsense offsets
+        for (int i = 1; i <= repeats; i++) {
+            background_score += counts[i];
+        }
 
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_SC,score1);
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_AB, score3);
-        features.put(SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_SA, score2);
+        score1 = Math.log(counts[0] + 1E-4); // simple count
+        score2 = counts[0] - (background_score / repeats); // subtract background to normalize
+        score3 = Math.sqrt(counts[0] / ((background_score / repeats) + 1) ); // divide by background to normalize
 
-        return features;
+        features.set(subset, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_SC, score1);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_AB, score3);
+        features.set(subset, SpectrumFeatureType.QUALSCORE_Complement_B_Y_IONS_3CHARGE_SA, score2);
     }
 
 
-    // method to count complementary peaks for a given parent mass; running time optimized
-    private static double comparePeaks(double[][] peakList, double masstolerance, double precursor_mz) {
-        int upper_compl;
-        int count = 0, count_doubly = 0, count_triply = 0, count_triply21 = 0;
-        double massdiff_doubly = 0, massdiff_triply = 0, massdiff_triply21 = 0;
-        
-        // doubly charged spectra: compare singly charged daughter ions versus singly charged daughter ions
-        upper_compl = peakList.length - 1;
-        for (int i = 0; i < peakList.length; i++) {
-            for (int j = upper_compl; j >= 0; j--) { // going all the way down from the parent mass
-                massdiff_doubly = 1 * peakList[i][0] + 1 * peakList[j][0] - precursor_mz * 2;
-                if (Math.abs(massdiff_doubly) <= masstolerance) {
-                    count_doubly += 1; // count as correct complement
-                } else {
-                    // try to save time
-                    if (massdiff_doubly > masstolerance && upper_compl > j) {
-                        upper_compl -= 1; // no point in searching higher than this
-                    } else if (massdiff_doubly < masstolerance) {
-                        j = 0; // no point in searching lower than this
-                    }
-                }
-            }
+    // method to count complementary peaks for several parent masses, every charge hypothesis is a single sweep
+    private static double[] comparePeaks(double[] mz, double masstolerance, double[] precursor_mz) {
+        double[] doubly = new double[precursor_mz.length];
+        double[] triply = new double[precursor_mz.length];
+        for (int k = 0; k < precursor_mz.length; k++) {
+            doubly[k] = precursor_mz[k] * 2;
+            triply[k] = precursor_mz[k] * 3;
         }
-        
+
+        // doubly charged spectra: compare singly charged daughter ions versus singly charged daughter ions
+        double[] count_doubly = SpectrumUtils.countComplementaryPairs(mz, 1, doubly, masstolerance);
+
         // triply charged spectra
-        upper_compl = peakList.length - 1;
-        for (int i = 0; i < peakList.length; i++) {
-            for (int j = upper_compl; j >= 0; j--) { // going all the way down from the parent mass
-                massdiff_triply = 1 * peakList[i][0] + 2 * peakList[j][0] - precursor_mz * 3;
-                if (Math.abs(massdiff_triply) <= masstolerance) {
-                    count_triply += 1; // count as correct complement
-                } else {
-                    // try to save time
-                    if (massdiff_triply > masstolerance && upper_compl > j) {
-                        upper_compl -= 1; // no point in searching higher than this
-                    } else if (massdiff_triply < masstolerance) {
-                        j = 0; // no point in searching lower than this
-                    }
-                }
-            }
+        double[] count_triply = SpectrumUtils.countComplementaryPairs(mz, 2, triply, masstolerance);
+
+        double[] count = new double[precursor_mz.length];
+        for (int k = 0; k < precursor_mz.length; k++) {
+            count[k] = count_doubly[k] > count_triply[k] ? count_doubly[k] : count_triply[k];
+            //count = count_doubly + count_triply; //use maximum?
         }
-        
-        count = count_doubly > count_triply ? count_doubly : count_triply;
-        //count = count_doubly + count_triply; //use maximum?
         return count;
-        
+
     } //end comparePeaks
     
 } //end class
-
@@ -1,10 +1,12 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.features;
 
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
 
-import java.text.DecimalFormat;
-import java.util.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * Function to compute the XArea of an Spectrum following the Nu et al approach:
@@ -15,49 +17,62 @@ import java.util.*;
  */
 public class XXArea implements FeatureCalculator {
 
-    private static XXArea instance = null;
+    private static final Set<SpectrumFeatureType> FEATURE_TYPES = Collections.unmodifiableSet(EnumSet.of(SpectrumFeatureType.XXArea));
 
-    private Map<SpectrumFeatureType, Object> features = new HashMap<SpectrumFeatureType, Object>();
+    private static XXArea instance = null;
 
     protected XXArea(){
-        features.put(SpectrumFeatureType.XXArea,0);
     }
 
-    public static XXArea getInstance(){
+    /**
+     * Write the default XXArea value.
+     */
+    private static void setDefaultFeatures(FeatureVector features, int subset){
+        features.set(subset, SpectrumFeatureType.XXArea,0);
+    }
+
+    public static synchronized XXArea getInstance(){
         if(instance == null)
             instance = new XXArea();
         return instance;
   }
 
     @Override
-    public Map<SpectrumFeatureType, Object> computeFeature(Spectrum spectrum, int charge) {
-
-        if (spectrum == null || spectrum.getMassIntensityMap().length == 0)
-            return features;
+    public Set<SpectrumFeatureType> getFeatureTypes() {
+        return FEATURE_TYPES;
+    }
 
-        double[] intensityClone = spectrum.getIntensityBinaryDataArray().getDoubleArray();
+    @Override
+    public void computeFeature(PeakList peaks, int charge, FeatureVector features, int subset) {
 
-        Arrays.sort(intensityClone);
+        setDefaultFeatures(features, subset);
 
-        List<Double> cumulativeIntensities = new ArrayList<Double>(intensityClone.length);
+        if (peaks == null || peaks.isEmpty())
+            return;
 
-        double totalIntensity = 0.0;
+        // the peak list returns a copy of the intensities, it can be sorted
+        double[] intensityClone = peaks.getIntensityArray();
 
-        for(int i =0 ; i < intensityClone.length; i++) totalIntensity += intensityClone[i];
+        Arrays.sort(intensityClone);
 
+        // cumulative intensities, their extremes and their sum (the area under the curve) in one pass
         double cumulativeIntensity = 0;
+        double maxCumulativeIntensity = Double.NEGATIVE_INFINITY;
+        double minCumulativeIntensity = Double.POSITIVE_INFINITY;
+        double cumulativeArea = 0.0;
         for(int i = 0; i < intensityClone.length; i++){
             cumulativeIntensity += intensityClone[i];
-            cumulativeIntensities.add(cumulativeIntensity);
+            maxCumulativeIntensity = Math.max(maxCumulativeIntensity, cumulativeIntensity);
+            minCumulativeIntensity = Math.min(minCumulativeIntensity, cumulativeIntensity);
+            cumulativeArea += cumulativeIntensity;
         }
 
         //And now compute the XArea
-        double triangleArea = ((double)cumulativeIntensities.size() * (Collections.max(cumulativeIntensities) - Collections.min(cumulativeIntensities)) + Collections.max(cumulativeIntensities)) / 2;
-
-        double cumulativeArea = 0.0;
-
-        for(Double cumulativeAreaValue: cumulativeIntensities) cumulativeArea += cumulativeAreaValue;
+        double triangleArea = ((double)intensityClone.length * (maxCumulativeIntensity - minCumulativeIntensity) + maxCumulativeIntensity) / 2;
 
+        // without intensity there is no area to normalize
+        if (triangleArea == 0)
+            return;
 
         //Now lets do some normalization so that the area of the triangle is always 1;
         //Modification introduced by PCC
@@ -66,12 +81,9 @@ public class XXArea implements FeatureCalculator {
         //double XArea = triangleArea - cumulativeArea;
         double XArea = cumulativeArea;
 
-        DecimalFormat df = new DecimalFormat("#.##");
-
-        XArea = Double.parseDouble(df.format(XArea));
-
-        features.put(SpectrumFeatureType.XXArea, XArea);
+        // two decimals
+        XArea = Math.rint(XArea * 100) / 100;
 
-        return features;
+        features.set(subset, SpectrumFeatureType.XXArea, XArea);
     }
 }
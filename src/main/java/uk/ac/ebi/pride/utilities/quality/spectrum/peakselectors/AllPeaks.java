@@ -1,6 +1,6 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors;
 
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
 
 /**
@@ -11,8 +11,8 @@ import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
  */
 public class AllPeaks implements PeakSelector{
 
-    public Spectrum transform(Spectrum spectrum){
-		return spectrum;
+    public PeakList transform(PeakList peaks){
+		return peaks;
 	}
 
     @Override
@@ -24,4 +24,17 @@ public class AllPeaks implements PeakSelector{
     public String getCode() {
         return ProcessingType.ALL_PEAKS.getCode();
     }
+
+    /**
+     * The selector has no parameters, all the instances select the same peaks.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o != null && getClass() == o.getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
 }
@@ -4,13 +4,10 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors;
 
 
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.spectrum.common.SpectrumUtils;
 import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * PeakSelector that returns "dominant" peaks: every peak
  * that's above 20% of the average of the 5 largest peaks
@@ -21,17 +18,17 @@ import java.util.List;
 public class DominantPeaks implements PeakSelector{
 
     @Override
-	public Spectrum transform(Spectrum spectrum) throws CloneNotSupportedException {
-
-        Spectrum analyzeSpectrum = (Spectrum) spectrum.clone();
+	public PeakList transform(PeakList peaks){
 
-        analyzeSpectrum = SpectrumUtils.sortSpectrumByIntensity(analyzeSpectrum, false);
+        // only the 5 biggest ones are needed, the peaks are not sorted
+        double[] intensities = peaks.getIntensityArray();
+        int[] largest = SpectrumUtils.selectLargest(intensities, 5);
 
 		int n = 0;
 		double sum = 0;
 		// sum up to 5 biggest ones
-		for(int i = 0; i < analyzeSpectrum.getIntensityBinaryDataArray().getDoubleArray().length && i < 5;i++)		{
-			sum += (analyzeSpectrum.getIntensityBinaryDataArray().getDoubleArray()[(spectrum.getIntensityBinaryDataArray().getDoubleArray().length-1 - i)]);
+		for(int i = 0; i < largest.length;i++)		{
+			sum += intensities[largest[i]];
 			n++;
 		}
 
@@ -42,27 +39,16 @@ public class DominantPeaks implements PeakSelector{
 		double criterium = 0.2 * sum/n;
 
 		// apply cutoff
-        List<Double> mzList  = new ArrayList<Double>();
-        List<Double> intList = new ArrayList<Double>();
+        int[] selected = new int[peaks.size()];
+        int selectedCount = 0;
 
-        for(int i = 0; i < analyzeSpectrum.getIntensityBinaryDataArray().getDoubleArray().length; i++){
-            if(analyzeSpectrum.getIntensityBinaryDataArray().getDoubleArray()[i] >= criterium){
-                mzList.add(analyzeSpectrum.getMzBinaryDataArray().getDoubleArray()[i]);
-                intList.add(analyzeSpectrum.getMzBinaryDataArray().getDoubleArray()[i]);
+        for(int i = 0; i < peaks.size(); i++){
+            if(intensities[i] >= criterium){
+                selected[selectedCount++] = i;
             }
         }
-        double[] mzArr  = new double[mzList.size()];
-        double[] intArr = new double[intList.size()];
-
-        for(int i = 0; i < mzList.size();i++){
-            mzArr[i]  = mzList.get(i);
-            intArr[i] = intList.get(i);
-        }
-
-		analyzeSpectrum.getIntensityBinaryDataArray().setDoubleArray(intArr);
-        analyzeSpectrum.getMzBinaryDataArray().setDoubleArray(mzArr);
 
-		return analyzeSpectrum;
+		return peaks.select(selected, selectedCount);
 	}
 
     @Override
@@ -74,4 +60,17 @@ public class DominantPeaks implements PeakSelector{
     public String getCode() {
         return ProcessingType.DOM_PEAKS.getCode();
     }
+
+    /**
+     * The selector has no parameters, all the instances select the same peaks.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o != null && getClass() == o.getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
 }
@@ -1,12 +1,9 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors;
 
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.spectrum.common.SpectrumUtils;
 import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * PeakSelector that returns the X highest peaks
  *
@@ -15,17 +12,15 @@ import java.util.List;
 
 public class DominantPeaksPerDalton implements PeakSelector{
 
-	public Spectrum transform(Spectrum spectrum) throws CloneNotSupportedException {
-
-        Spectrum analyzeSpectrum = new Spectrum(spectrum);
+	public PeakList transform(PeakList peaks){
 
-        analyzeSpectrum = SpectrumUtils.sortSpectrumByMass(analyzeSpectrum, false);
+        PeakList sortedPeaks = SpectrumUtils.sortByMass(peaks, false);
 
         int n = 0;
         double sum = 0;
         // sum up to 5 biggest ones
-        for(int i = 0; i < analyzeSpectrum.getMzBinaryDataArray().getDoubleArray().length && i < 5;i++)		{
-            sum += (analyzeSpectrum.getMzBinaryDataArray().getDoubleArray()[(analyzeSpectrum.getMzBinaryDataArray().getDoubleArray().length-1 - i)]);
+        for(int i = 0; i < sortedPeaks.size() && i < 5;i++)		{
+            sum += sortedPeaks.getMz(sortedPeaks.size() - 1 - i);
             n++;
         }
 
@@ -36,27 +31,16 @@ public class DominantPeaksPerDalton implements PeakSelector{
         double criterium = 0.2 * sum/n;
 
         // apply cutoff
-        List<Double> mzList  = new ArrayList<Double>();
-        List<Double> intList = new ArrayList<Double>();
+        int[] selected = new int[sortedPeaks.size()];
+        int selectedCount = 0;
 
-        for(int i = 0; i < analyzeSpectrum.getMzBinaryDataArray().getDoubleArray().length; i++){
-            if(analyzeSpectrum.getMzBinaryDataArray().getDoubleArray()[i] >= criterium){
-                mzList.add(analyzeSpectrum.getMzBinaryDataArray().getDoubleArray()[i]);
-                intList.add(analyzeSpectrum.getMzBinaryDataArray().getDoubleArray()[i]);
+        for(int i = 0; i < sortedPeaks.size(); i++){
+            if(sortedPeaks.getMz(i) >= criterium){
+                selected[selectedCount++] = i;
             }
         }
-        double[] mzArr  = new double[mzList.size()];
-        double[] intArr = new double[intList.size()];
-
-        for(int i = 0; i < mzList.size();i++){
-            mzArr[i]  = mzList.get(i);
-            intArr[i] = intList.get(i);
-        }
-
-        analyzeSpectrum.getIntensityBinaryDataArray().setDoubleArray(intArr);
-        analyzeSpectrum.getMzBinaryDataArray().setDoubleArray(mzArr);
 
-        return analyzeSpectrum;
+        return sortedPeaks.select(selected, selectedCount);
 	}
 
     @Override
@@ -71,4 +55,16 @@ public class DominantPeaksPerDalton implements PeakSelector{
         return ProcessingType.DOM_PEAKS.getCode();
     }
 
+    /**
+     * The selector has no parameters, all the instances select the same peaks.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o != null && getClass() == o.getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
 }
@@ -0,0 +1,56 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+
+/**
+ * Isotope similarity scores of the peaks of a spectrum, computed once and split by a cut-off into the signal
+ * peaks (good isotope fit, score below the cut-off) and the noise peaks (bad isotope fit, score above the
+ * cut-off). All the IsotopePeaks selectors of a spectrum can share one partition, see PeakSelectorCache.
+ *
+ * @author ypriverol
+ */
+public class IsotopePartition {
+
+    private final PeakList peaks;
+
+    private final double[] scores;
+
+    /**
+     * @param peaks PeakList sorted by m/z
+     */
+    public IsotopePartition(PeakList peaks) {
+        this.peaks = peaks;
+        this.scores = IsotopePeaks.computeScores(peaks);
+    }
+
+    /**
+     * @return the peaks with good isotope fit, score below the cut-off
+     */
+    public PeakList getSignal(double cutoff) {
+        return select(cutoff, true);
+    }
+
+    /**
+     * @return the peaks with bad isotope fit, score above the cut-off
+     */
+    public PeakList getNoise(double cutoff) {
+        return select(cutoff, false);
+    }
+
+    /**
+     * @return all the peaks with the isotope similarity scores as intensities
+     */
+    public PeakList getContinuousScore() {
+        return peaks.withIntensities(scores);
+    }
+
+    private PeakList select(double cutoff, boolean signal) {
+        int[] subset = new int[scores.length];
+        int subsetCount = 0;
+        for (int i = 0; i < scores.length; i++) {
+            if (signal ? scores[i] < cutoff : scores[i] > cutoff)
+                subset[subsetCount++] = i;
+        }
+        return peaks.select(subset, subsetCount);
+    }
+}
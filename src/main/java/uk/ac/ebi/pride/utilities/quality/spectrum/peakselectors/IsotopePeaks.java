@@ -1,10 +1,8 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors;
 
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
 
-import java.util.ArrayList;
-
 /**
  * Scores each peak in a spectrum according to its isotope pattern
  * Looks for real isotope patterns in a spectrum and compares them
@@ -15,6 +13,11 @@ import java.util.ArrayList;
  */
 
 public class IsotopePeaks implements PeakSelector{
+
+    /**
+     * Similarity score cut-off between good (signal) and bad (noise) isotope fits.
+     */
+    public static final double DEFAULT_SIMILARITY_SCORE_CUTOFF = 20;
     
     protected double similarityScoreCutoff;
 
@@ -28,76 +31,83 @@ public class IsotopePeaks implements PeakSelector{
         this.signal = signal;
     }
     
-    public Spectrum transform(Spectrum spectrum) throws CloneNotSupportedException {
+    /**
+     * @return similarity score cut-off between signal and noise peaks
+     */
+    public double getSimilarityScoreCutoff() {
+        return similarityScoreCutoff;
+    }
+
+    public PeakList transform(PeakList peaks){
+        return transform(new IsotopePartition(peaks));
+    }
 
-        Spectrum analysisSpectrum = new Spectrum(spectrum);
+    /**
+     * Select the peaks from the scores of a partition, so the scores can be shared with other IsotopePeaks.
+     * @param partition IsotopePartition of the peak list
+     * @return the peaks with the scores as intensities when continuousScore is set, otherwise the signal
+     * or noise peaks
+     */
+    public PeakList transform(IsotopePartition partition){
+        if(continuousScore == true){
+            return partition.getContinuousScore();  // return all peaks, transformed abundances
+        }
+        return signal ? partition.getSignal(similarityScoreCutoff) : partition.getNoise(similarityScoreCutoff);
+    }
 
-        double[][] peakList = analysisSpectrum.getMassIntensityMap();
+    /**
+     * Score the isotope pattern of every peak: the intensities of the peaks at +0, +1 and +2 Da (rounded mass
+     * difference) are compared with the theoretical Poisson distribution for the mass of the peak. The peaks
+     * following a peak are found with a window whose end only moves forward, and the Poisson densities of a peak
+     * are computed with a single Math.exp.
+     *
+     * When the m/z values are not in ascending order the window of every peak is scanned again from the peak, and
+     * the peaks with a negative mass difference are put in the bin 0, as it was always done.
+     * @param peaks PeakList, usually sorted by m/z
+     * @return similarity score of every peak, the smaller the better
+     */
+    public static double[] computeScores(PeakList peaks){
 
-        ArrayList numbers = new ArrayList();
-        
-        double similarityScore = 0;
-        double ktemp = 0;
-        int    k = 0; // index for real distribution
-        double currentmass1 = 0;
-        double currentmass2 = 0;
         double[] idealDistribution = new double[4];   // Theoretical Poisson distribution for peaks 0..3
         double[] realDistribution  = new double[4];  // Real Poisson distribution for peaks 0..3
-        
-        double[][] newPeakList = new double[peakList.length][2];
-        
-        for (int i = 0; i < peakList.length; i++) {
-            currentmass1 = peakList[i][0];
-            
-            for (int xid = 0; xid < 3; xid++) {
-                idealDistribution[xid] = computePoisson(xid, currentmass1);
+
+        double[] scores = new double[peaks.size()];
+
+        boolean sorted = isSorted(peaks);
+
+        // end of the window: first peak whose rounded mass difference to the current one is above the last bin
+        int end = 0;
+        for (int i = 0; i < peaks.size(); i++) {
+            double currentmass1 = peaks.getMz(i);
+
+            computePoisson(currentmass1, idealDistribution);
+            for (int xid = 0; xid < realDistribution.length; xid++)
                 realDistribution[xid] = 0; // initialize realDistribution
+
+            if (!sorted || end < i)
+                end = i;
+            while (end < peaks.size() && Math.round(peaks.getMz(end) - currentmass1) <= 3)
+                end++;
+
+            // put every peak of the window into the bin of its rounded mass difference
+            for (int j = i; j < end; j++) {
+                long bin = Math.round(peaks.getMz(j) - currentmass1);
+                realDistribution[bin > 0 ? (int) bin : 0] += peaks.getIntensity(j);
             }
-            
-            for (int j = i; j < peakList.length; j++) {
-                currentmass2 = peakList[j][0];
-                
-                // calculate in what bin the peak belongs
-                ktemp = Math.round(currentmass2 - currentmass1);
-                if (ktemp > 3)break;
-                
-                k = 0;
-                while (ktemp > k) {
-                    k += 1;
-                }
-                
-                // put the peak into the bin
-                if (k > 3)break;
-                realDistribution[k] = realDistribution[k] + peakList[j][1];
-            }
-            
+
             // compare real distribution with ideal distribution
-            similarityScore = compareDistributions(idealDistribution, realDistribution);
-            //System.out.println(similarityScore + "   " + currentmass1 + "   " + peakList[i][1]);
-            newPeakList[i][0] = currentmass1;     // keep all peaks, transform abundances
-            newPeakList[i][1] = similarityScore;  // keep all peaks, transform abundances
-            if (signal == false) {
-                if (similarityScore > similarityScoreCutoff) numbers.add(new Integer(i)); // only keep a subset of peaks
-            }else{
-                if (similarityScore < similarityScoreCutoff) numbers.add(new Integer(i)); // only keep a subset of peaks
-            }
+            scores[i] = compareDistributions(idealDistribution, realDistribution);  // keep all peaks, transform abundances
         }
-        
-        // add subset to new peak list
-        double[][] newPeakList2 = new double[numbers.size()][2];
-        for (int i = 0; i < numbers.size(); i++) {
-            newPeakList2[i] = peakList[ ( (Integer) numbers.get(i)).intValue()];
-        }
-        
-        if(continuousScore == true){
-            analysisSpectrum.setMassIntensityMap(newPeakList);  // return all peaks, transformed abundances
-        }else{
-            analysisSpectrum.setMassIntensityMap(newPeakList2); // return subset of peaks
-        }
-        
-        return spectrum;
+        return scores;
     }
-    
+
+    private static boolean isSorted(PeakList peaks) {
+        for (int i = 1; i < peaks.size(); i++)
+            if (peaks.getMz(i) < peaks.getMz(i - 1))
+                return false;
+        return true;
+    }
+
     @Override
     public String getDescription(){
         return ProcessingType.ISO_PEAKS.getTitle();
@@ -127,6 +137,20 @@ public class IsotopePeaks implements PeakSelector{
         density2 = (float)density;
         return density2;
     }
+
+    /**
+     * Theoretical relative height of the isotope peaks 0, 1 and 2 for a mass, as computePoisson(x, mass) but with a
+     * single Math.exp: lambda^x / x! is built by products.
+     * @param mass mass of the main peak
+     * @param densities array where the densities are stored, the first 3 positions are written
+     */
+    static void computePoisson(double mass, double[] densities) {
+        double lambda = mass * (0.6760/1000);
+        double base = (float)Math.exp(-lambda);
+        densities[0] = (float) base;
+        densities[1] = (float) (base * lambda);
+        densities[2] = (float) (base * (lambda * lambda) / 2);
+    }
     
     public static float compareDistributions(double[] idealDistribution, double[] realDistribution) {
         
@@ -153,4 +177,25 @@ public class IsotopePeaks implements PeakSelector{
         return (float)score1;
     }
     
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        IsotopePeaks that = (IsotopePeaks) o;
+
+        return continuousScore == that.continuousScore
+                && signal == that.signal
+                && Double.compare(that.similarityScoreCutoff, similarityScoreCutoff) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        long temp = Double.doubleToLongBits(similarityScoreCutoff);
+        int result = (int) (temp ^ (temp >>> 32));
+        result = 31 * result + (continuousScore ? 1 : 0);
+        result = 31 * result + (signal ? 1 : 0);
+        return result;
+    }
 }
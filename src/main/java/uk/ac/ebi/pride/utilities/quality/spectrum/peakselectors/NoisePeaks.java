@@ -1,13 +1,9 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors;
 
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
-import uk.ac.ebi.pride.utilities.quality.spectrum.common.SpectrumUtils;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
 import uk.ac.ebi.pride.utilities.quality.utils.math.RobustMath;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * A PeakSelector that intends to return only the peaks that are noise.
  * These are peaks that lower than the (robust) mean plus a certain
@@ -26,42 +22,28 @@ public class NoisePeaks implements PeakSelector{
 		this.deletionLimit = deletionLimit;
 	}
 
-	public Spectrum transform(Spectrum spectrum) throws CloneNotSupportedException {
-
-        Spectrum analyzeSpectrum = new Spectrum(spectrum);
+	public PeakList transform(PeakList peaks){
 
-		analyzeSpectrum = SpectrumUtils.sortSpectrumByIntensity(analyzeSpectrum,false);
-        List<Float> numbers = new ArrayList<Float>();
+        double[] numbers = new double[peaks.size()];
 
-		for (int i = 0; i < analyzeSpectrum.getIntensityBinaryDataArray().getDoubleArray().length; i++){
-			numbers.add(new Float(Math.log(analyzeSpectrum.getIntensityBinaryDataArray().getDoubleArray()[i] + 1E-8)));
+		for (int i = 0; i < peaks.size(); i++){
+			// float precision, as the estimate always has been computed
+			numbers[i] = (float) Math.log(peaks.getIntensity(i) + 1E-8);
 		}
 
-		RobustMath.NormalDistributionParameters ndp = RobustMath.robustEstimate(numbers.toArray(new Float[0]), deletionLimit, zLimit);
+		RobustMath.NormalDistributionParameters ndp = RobustMath.robustEstimate(numbers, deletionLimit, zLimit);
 
-        // apply cutoff
-        List<Double> mzList  = new ArrayList<Double>();
-        List<Double> intList = new ArrayList<Double>();
+        // apply cutoff, the selected peaks keep the m/z order of the input
+        int[] selected = new int[peaks.size()];
+        int selectedCount = 0;
 
-        for (int i = 0;i < analyzeSpectrum.getIntensityBinaryDataArray().getDoubleArray().length;i++){
-            if(Math.log(analyzeSpectrum.getIntensityBinaryDataArray().getDoubleArray()[1] + 1E-8) <= ndp.mean + zLimit*ndp.stddev)			{
-                mzList.add(analyzeSpectrum.getMzBinaryDataArray().getDoubleArray()[i]);
-                intList.add(analyzeSpectrum.getMzBinaryDataArray().getDoubleArray()[i]);
+        for (int i = 0;i < peaks.size();i++){
+            if(Math.log(peaks.getIntensity(i) + 1E-8) <= ndp.mean + zLimit*ndp.stddev)			{
+                selected[selectedCount++] = i;
             }
         }
 
-        double[] mzArr  = new double[mzList.size()];
-        double[] intArr = new double[intList.size()];
-
-        for(int i = 0; i < mzList.size();i++){
-            mzArr[i]  = mzList.get(i);
-            intArr[i] = intList.get(i);
-        }
-
-        analyzeSpectrum.getIntensityBinaryDataArray().setDoubleArray(intArr);
-        analyzeSpectrum.getMzBinaryDataArray().setDoubleArray(mzArr);
-
-		return analyzeSpectrum;
+		return peaks.select(selected, selectedCount);
 	}
 
     @Override
@@ -72,4 +54,22 @@ public class NoisePeaks implements PeakSelector{
 	public String getCode(){
 		return ProcessingType.NOISE_PEAKS.getCode();
 	}
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        NoisePeaks that = (NoisePeaks) o;
+
+        return deletionLimit == that.deletionLimit && Double.compare(that.zLimit, zLimit) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        long temp = Double.doubleToLongBits(zLimit);
+        int result = (int) (temp ^ (temp >>> 32));
+        result = 31 * result + deletionLimit;
+        return result;
+    }
 }
@@ -1,12 +1,10 @@
 
 package uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors;
 
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
 import uk.ac.ebi.pride.utilities.quality.utils.math.RobustMath;
 
-import java.util.ArrayList;
-
 /**
  * Another implementation of PeakSelector that is meant to
  * return the peaks that are Noise. This implementation
@@ -34,52 +32,42 @@ public class NoisePeaksByInterval implements PeakSelector{
 		this.maxPeaksPer1000Da = maxPeaksPer1000Da;
 	}
 
-	public Spectrum transform(Spectrum spectrum) throws CloneNotSupportedException {
-
-		ArrayList numbers = new ArrayList(), includeNumbers = new ArrayList();
-
-        Spectrum analyzeSpectrum = new Spectrum(spectrum);
+	public PeakList transform(PeakList peaks){
 
-		double[][] peakList = spectrum.getMassIntensityMap();
+		if (peaks.size() <= divisions)
+            return peaks;
 
-		if (peakList.length <= divisions)
-            return analyzeSpectrum;
+		double[] numbers = new double[peaks.size()];
+		int[] includeNumbers = new int[peaks.size()];
+		int includeCount = 0;
 
 		int currentIndex = 0;
-		double minMz = peakList[0][0], maxMz = peakList[peakList.length - 1][0];
+		double minMz = peaks.getMz(0), maxMz = peaks.getMz(peaks.size() - 1);
 
 		for (int k = 0; k < divisions; k++){
 
 			double currentMax = minMz + (maxMz - minMz) * (k + 1) / divisions;
-			numbers.clear();
 			int oldIndex = currentIndex;
 			for (;
-				currentIndex < peakList.length
-					&& peakList[currentIndex][0] <= currentMax;
+				currentIndex < peaks.size()
+					&& peaks.getMz(currentIndex) <= currentMax;
 				currentIndex++)
 			{
-				numbers.add(new Float(Math.log(peakList[currentIndex][1] + 1E-8)));
+				// the log intensities are rounded to float precision as the cut-offs always have been
+				numbers[currentIndex] = (float) Math.log(peaks.getIntensity(currentIndex) + 1E-8);
 			}
 
 			RobustMath.NormalDistributionParameters ndp =
 				RobustMath.estimatePercentiles(
-					(Float[]) numbers.toArray(new Float[0]), percentileCutoff, maxPeaksPer1000Da * peakList.length / 1000);
+					numbers, oldIndex, currentIndex, percentileCutoff, maxPeaksPer1000Da * peaks.size() / 1000);
 
 			for (int i = oldIndex; i < currentIndex; i++)
-                if (Math.log(peakList[i][1] + 1E-8)	< ndp.mean)	{
-					includeNumbers.add(new Integer(i));
+                if (Math.log(peaks.getIntensity(i) + 1E-8)	< ndp.mean)	{
+					includeNumbers[includeCount++] = i;
 				}
         }
 
-		double[][] newPeakList = new double[includeNumbers.size()][2];
-
-		for (int i = 0; i < includeNumbers.size(); i++){
-			newPeakList[i][0] = peakList[((Integer) includeNumbers.get(i)).intValue()][0];
-            newPeakList[i][1] = peakList[((Integer) includeNumbers.get(i)).intValue()][1];
-        }
-		analyzeSpectrum.setMassIntensityMap(newPeakList);
-
-		return analyzeSpectrum;
+		return peaks.select(includeNumbers, includeCount);
 	}
 
     @Override
@@ -92,4 +80,25 @@ public class NoisePeaksByInterval implements PeakSelector{
 	{
 		return ProcessingType.NOISEINT_PEAK.getCode();
 	}
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        NoisePeaksByInterval that = (NoisePeaksByInterval) o;
+
+        return divisions == that.divisions
+                && maxPeaksPer1000Da == that.maxPeaksPer1000Da
+                && Double.compare(that.percentileCutoff, percentileCutoff) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        long temp = Double.doubleToLongBits(percentileCutoff);
+        int result = (int) (temp ^ (temp >>> 32));
+        result = 31 * result + maxPeaksPer1000Da;
+        result = 31 * result + divisions;
+        return result;
+    }
 }
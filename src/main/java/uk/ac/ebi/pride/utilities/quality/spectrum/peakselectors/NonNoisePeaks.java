@@ -1,11 +1,10 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors;
 
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
 import uk.ac.ebi.pride.utilities.quality.utils.math.RobustMath;
 
 import java.text.NumberFormat;
-import java.util.ArrayList;
 
 /**
  * A PeakSelector that returns peaks that are probably not
@@ -27,34 +26,26 @@ public class NonNoisePeaks implements PeakSelector{
 		this.deletionLimit = deletionLimit;
 	}
 
-	public Spectrum transform(Spectrum spectrum) throws CloneNotSupportedException {
+	public PeakList transform(PeakList peaks){
 
-        ArrayList numbers = new ArrayList();
-		//Spectrum analyzedSpectrum = (Spectrum) spectrum.clone();
-        Spectrum analyzedSpectrum = new Spectrum(spectrum);
+        double[] numbers = new double[peaks.size()];
 
-		double[][] peakList = analyzedSpectrum.getMassIntensityMap();
-
-		for (int i = 0; i < peakList.length; i++){
-			numbers.add(new Float(Math.log(peakList[i][1] + 1E-8)));
+		for (int i = 0; i < peaks.size(); i++){
+			// float precision, as the estimate always has been computed
+			numbers[i] = (float) Math.log(peaks.getIntensity(i) + 1E-8);
 		}
 
-		RobustMath.NormalDistributionParameters ndp = RobustMath.robustEstimate((Float[])numbers.toArray(new Float[0]), deletionLimit, zLimit);
+		RobustMath.NormalDistributionParameters ndp = RobustMath.robustEstimate(numbers, deletionLimit, zLimit);
 
-		numbers.clear();
-		for (int i = 0;i <peakList.length;i++)
-			if(Math.log(peakList[i][1] + 1E-8) > ndp.mean + zLimit*ndp.stddev)
+		int[] selected = new int[peaks.size()];
+		int selectedCount = 0;
+		for (int i = 0;i <peaks.size();i++)
+			if(Math.log(peaks.getIntensity(i) + 1E-8) > ndp.mean + zLimit*ndp.stddev)
 			{
-				numbers.add(new Integer(i));
+				selected[selectedCount++] = i;
 			}
 
-		double[][] newPeakList = new double[numbers.size()][];
-
-		for(int i = 0;i<numbers.size();i++)
-			newPeakList[i] = peakList[((Integer)numbers.get(i)).intValue()];
-		    analyzedSpectrum.setMassIntensityMap(newPeakList);
-
-		return analyzedSpectrum;
+		return peaks.select(selected, selectedCount);
 	}
 
     @Override
@@ -66,4 +57,22 @@ public class NonNoisePeaks implements PeakSelector{
 	public String getCode(){
 		return ProcessingType.NONNOSE3_PEAK.getCode();
 	}
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        NonNoisePeaks that = (NonNoisePeaks) o;
+
+        return deletionLimit == that.deletionLimit && Double.compare(that.zLimit, zLimit) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        long temp = Double.doubleToLongBits(zLimit);
+        int result = (int) (temp ^ (temp >>> 32));
+        result = 31 * result + deletionLimit;
+        return result;
+    }
 }
@@ -1,23 +1,27 @@
 package uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors;
 
 
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
 
 /**
  * PeakSelector is an interface that allows a class to
- * transform a spectrum into a filtered Spectrum. This is used
+ * transform a peak list into a filtered peak list. This is used
  * to calculate the same set of features for different
  * aspects of spectra.
+ *
+ * Implementations must not modify the input peak list, and two selectors
+ * that are equal (same type and parameters) must select the same peaks:
+ * this is used by {@link PeakSelectorCache} to share the selected subsets.
  * 
  * @author @ypriverol
  */
 public interface PeakSelector{
     /**
-     * Transform one spectrum in another new one by a transformation process (peak selection, etc)
-     * @param spectrum
-     * @return
+     * Transform one peak list in another new one by a transformation process (peak selection, etc)
+     * @param peaks PeakList of the spectrum
+     * @return the selected peaks, usually a view of the input peak list
      */
-	public Spectrum transform(Spectrum spectrum) throws CloneNotSupportedException;
+	public PeakList transform(PeakList peaks);
 
 	/**
      * Every method has they are own label to know which method was applied.
@@ -0,0 +1,62 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-spectrum cache of the peak list subsets. The subsets are keyed by the selector,
+ * so selectors of the same type and parameters are run only once for a spectrum and
+ * the resulting subset is shared by every feature calculator that uses it. The shared
+ * subsets must be treated as read-only.
+ *
+ * The isotope scores are also computed once and shared by all the IsotopePeaks selectors.
+ *
+ * A cache belongs to a single spectrum and it is not thread-safe.
+ *
+ * @author ypriverol
+ */
+public class PeakSelectorCache {
+
+    private final PeakList peaks;
+
+    private final Map<PeakSelector, PeakList> subsets = new HashMap<PeakSelector, PeakList>();
+
+    private IsotopePartition isotopePartition = null;
+
+    public PeakSelectorCache(PeakList peaks) {
+        this.peaks = peaks;
+    }
+
+    /**
+     * Return the subset of peaks selected by the selector, computing it only the first time
+     * a selector with the same type and parameters is requested.
+     * @param selector PeakSelector
+     * @return PeakList with the selected peaks, can be null if the selector returns null.
+     */
+    public PeakList transform(PeakSelector selector) {
+        if (subsets.containsKey(selector))
+            return subsets.get(selector);
+        PeakList subset;
+        if (selector instanceof IsotopePeaks)
+            subset = ((IsotopePeaks) selector).transform(getIsotopePartition());
+        else
+            subset = selector.transform(peaks);
+        subsets.put(selector, subset);
+        return subset;
+    }
+
+    /**
+     * @return the isotope scores of the peaks, computed the first time they are requested
+     */
+    public IsotopePartition getIsotopePartition() {
+        if (isotopePartition == null)
+            isotopePartition = new IsotopePartition(peaks);
+        return isotopePartition;
+    }
+
+    public PeakList getPeaks() {
+        return peaks;
+    }
+}
@@ -48,6 +48,17 @@ public enum ProcessingType {
         return code;
     }
 
+    /**
+     * @param type class of a PeakSelector
+     * @return the ProcessingType of the selector class, null if there is none
+     */
+    public static ProcessingType getProcessingType(Class type) {
+        for (ProcessingType processing : values())
+            if (processing.getType() == type)
+                return processing;
+        return null;
+    }
+
     public void setCode(String code) {
         this.code = code;
     }
@@ -40,7 +40,7 @@ public enum SpectrumFeatureType {
     QUALSCORE_ISOTOPE_NOISE                  ("QSISOTOPENOISE",   "Isotope noise", "Isotope noise", Double.class),
     QUALSCORE_ISOTOPE_STN                    ("QSISOTOPESTN",     "Isotope S/N ratio", "Isotope S/N ratio", Double.class),
 
-    QUALSCORE_NUM_PEAKS                      ("QSPEAKSNUM",       "Number of peaks","Number of peaks",Integer.class),
+    QUALSCORE_NUM_PEAKS                      ("QSPEAKSNUM",       "Number of peaks","Number of peaks",Double.class),
     QUALSCORE_AVG_BY_INTENSITY               ("QSINTENSITYAVG",   "Average intensity per peak", "Average intensity per peak", Double.class),
     QUALSCORE_STD_INTENSITY                  ("QSSTDINTENSITY",   "Standard deviation of intensities", "Standard deviation of intensitie", Double.class),
     QUALSCORE_MZ_95_INTENSITY                ("QSINTNESITYMZ95",  "m/z range containing 95% of intensity", "m/z range containing 95% of intensity", Double.class),
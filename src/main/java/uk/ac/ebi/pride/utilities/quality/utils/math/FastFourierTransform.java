@@ -0,0 +1,79 @@
+package uk.ac.ebi.pride.utilities.quality.utils.math;
+
+/**
+ * In-place radix-2 fast Fourier transform of complex values stored in two arrays (real and imaginary parts).
+ *
+ * @author ypriverol
+ */
+public class FastFourierTransform {
+
+    private FastFourierTransform() {
+    }
+
+    /**
+     * Transform the values in place. The inverse transform is scaled by 1/n, so a transform followed by an
+     * inverse transform gives back the original values.
+     * @param re real parts, the length must be a power of two
+     * @param im imaginary parts, same length as the real parts
+     * @param inverse true to compute the inverse transform
+     */
+    public static void transform(double[] re, double[] im, boolean inverse) {
+        int n = re.length;
+        if (n != im.length)
+            throw new IllegalArgumentException("The real and imaginary parts have different length: " + n + " != " + im.length);
+        if (n == 0 || (n & (n - 1)) != 0)
+            throw new IllegalArgumentException("The length must be a power of two: " + n);
+
+        // bit reversal permutation
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1)
+                j ^= bit;
+            j ^= bit;
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+
+        for (int length = 2; length <= n; length <<= 1) {
+            double angle = 2 * Math.PI / length * (inverse ? 1 : -1);
+            double wRe = Math.cos(angle);
+            double wIm = Math.sin(angle);
+            int half = length >> 1;
+            for (int start = 0; start < n; start += length) {
+                double uRe = 1, uIm = 0;
+                for (int k = 0; k < half; k++) {
+                    int a = start + k;
+                    int b = a + half;
+                    double vRe = re[b] * uRe - im[b] * uIm;
+                    double vIm = re[b] * uIm + im[b] * uRe;
+                    re[b] = re[a] - vRe;
+                    im[b] = im[a] - vIm;
+                    re[a] += vRe;
+                    im[a] += vIm;
+                    double next = uRe * wRe - uIm * wIm;
+                    uIm = uRe * wIm + uIm * wRe;
+                    uRe = next;
+                }
+            }
+        }
+
+        if (inverse) {
+            for (int i = 0; i < n; i++) {
+                re[i] /= n;
+                im[i] /= n;
+            }
+        }
+    }
+
+    /**
+     * @return the smallest power of two greater or equal than the value
+     */
+    public static int nextPowerOfTwo(int value) {
+        int n = 1;
+        while (n < value)
+            n <<= 1;
+        return n;
+    }
+}
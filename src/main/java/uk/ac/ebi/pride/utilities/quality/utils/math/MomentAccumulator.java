@@ -0,0 +1,108 @@
+package uk.ac.ebi.pride.utilities.quality.utils.math;
+
+/**
+ * Single pass accumulator of the mean and the central moments (up to the fourth) of a stream of values, with the
+ * numerically stable updates of Welford and Terriberry. The values are given one by one, so they do not have to be
+ * collected in an array first.
+ *
+ * The statistics are the population ones, as in RobustMath.normalEstimate.
+ *
+ * @author ypriverol
+ */
+public class MomentAccumulator {
+
+    private long count = 0;
+
+    private double mean = 0;
+
+    /**
+     * Sums of the 2nd, 3rd and 4th powers of the differences to the mean.
+     */
+    private double m2 = 0, m3 = 0, m4 = 0;
+
+    public void add(double value) {
+        long previous = count;
+        count++;
+        double delta = value - mean;
+        double deltaN = delta / count;
+        double deltaN2 = deltaN * deltaN;
+        double term = delta * deltaN * previous;
+        mean += deltaN;
+        m4 += term * deltaN2 * ((double) count * count - 3 * count + 3) + 6 * deltaN2 * m2 - 4 * deltaN * m3;
+        m3 += term * deltaN * (count - 2) - 3 * deltaN * m2;
+        m2 += term;
+    }
+
+    public void addAll(double[] values) {
+        for (double value : values)
+            add(value);
+    }
+
+    public void addAll(int[] values) {
+        for (int value : values)
+            add(value);
+    }
+
+    public void clear() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+        m3 = 0;
+        m4 = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the mean, NaN if there are no values
+     */
+    public double getMean() {
+        return (count == 0) ? Double.NaN : mean;
+    }
+
+    /**
+     * @return the variance, NaN if there are no values
+     */
+    public double getVariance() {
+        return (count == 0) ? Double.NaN : m2 / count;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * @return the skewness, 0 for 5 values or less or without variance
+     */
+    public double getSkewness() {
+        double stddev = getStandardDeviation();
+        if (count > 5 && stddev > 0)
+            return m3 / (count * stddev * stddev * stddev);
+        return 0;
+    }
+
+    /**
+     * @return the kurtosis, 0 for 5 values or less or without variance
+     */
+    public double getKurtosis() {
+        double variance = getVariance();
+        if (count > 5 && variance > 0)
+            return m4 / (count * variance * variance);
+        return 0;
+    }
+
+    /**
+     * @return the statistics of the values added so far
+     */
+    public RobustMath.NormalDistributionParameters getParameters() {
+        RobustMath.NormalDistributionParameters ndp = new RobustMath.NormalDistributionParameters();
+        ndp.mean = getMean();
+        ndp.variance = getVariance();
+        ndp.stddev = Math.sqrt(ndp.variance);
+        ndp.skewness = getSkewness();
+        ndp.kurtosis = getKurtosis();
+        return ndp;
+    }
+}
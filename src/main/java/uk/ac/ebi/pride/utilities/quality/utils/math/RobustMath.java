@@ -18,9 +18,7 @@
  */
 package uk.ac.ebi.pride.utilities.quality.utils.math;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 
 /**
  * <code>RobustMath</code> implements some methods that try to derive some
@@ -60,121 +58,265 @@ public class RobustMath
 		return ndp;
 	}
 
-	public static NormalDistributionParameters estimatePercentiles(Number[] values, double percentile, int maxPeaks)
+	/**
+	 * Calculate median and standard deviation from the median in a sorted array of values.
+	 * @param values A sorted array of values.
+	 * @return A NDP with the median in the mean field and standard deviation
+	 */
+	public static NormalDistributionParameters estimateWithMedian(double[] values)
 	{
-		Number[] values2 = new Number[values.length];
-		int index;
-		for (int i = 0; i < values.length; i++){values2[i] = values[i];} // copy values to new array
-		Arrays.sort(values2); // sort array to find out percentiles
-
 		NormalDistributionParameters ndp = new NormalDistributionParameters();
 		if(values.length == 0)
 			return null;
+		if(values.length % 2 == 1)
+			ndp.mean = values[values.length/2];
+		else
+			ndp.mean = (values[values.length/2-1] + values[values.length/2])/2;
+
+		double sum  =0;
+		for(int i =0;i<values.length;i++)
+		{
+			sum += (values[i] - ndp.mean) * (values[i] - ndp.mean);
+		}
+		ndp.stddev = Math.sqrt(sum / values.length);
+		return ndp;
+	}
+
+	public static NormalDistributionParameters estimatePercentiles(Number[] values, double percentile, int maxPeaks)
+	{
+		double[] values2 = new double[values.length];
+		for (int i = 0; i < values.length; i++){values2[i] = values[i].doubleValue();} // copy values to new array
+		return estimatePercentiles(values2, percentile, maxPeaks);
+	}
+
+	/**
+	 * Estimate a percentile of the values, the value at that position of the sorted values is found with
+	 * an introselect (O(n) expected) instead of sorting all of them.
+	 * @param values the values, they are reordered in place
+	 * @param percentile percentile (0-100)
+	 * @param maxPeaks the percentile is raised so that at most maxPeaks values are above it
+	 * @return A NDP with the percentile in the mean field, null if there are no values
+	 */
+	public static NormalDistributionParameters estimatePercentiles(double[] values, double percentile, int maxPeaks)
+	{
+		return estimatePercentiles(values, 0, values.length, percentile, maxPeaks);
+	}
 
-		index = (int)(values2.length * percentile / 100);
-		if(index < values2.length - maxPeaks) index = values2.length - maxPeaks;
-		if(index < 0) index = 0;
-		if(index > values2.length - 1) index = values2.length - 1;
+	/**
+	 * Estimate a percentile of the values of a range of the array, see estimatePercentiles(double[], double, int).
+	 * @param values the array, only the range is reordered in place
+	 * @param from first position of the range
+	 * @param to position after the last one of the range
+	 * @param percentile percentile (0-100)
+	 * @param maxPeaks the percentile is raised so that at most maxPeaks values are above it
+	 * @return A NDP with the percentile in the mean field, null if the range is empty
+	 */
+	public static NormalDistributionParameters estimatePercentiles(double[] values, int from, int to, double percentile, int maxPeaks)
+	{
+		if(to <= from)
+			return null;
 
-		ndp.mean = values2[index].doubleValue(); //mean is actually not an adequate description here
+		NormalDistributionParameters ndp = new NormalDistributionParameters();
+		ndp.mean = estimatePercentiles(values, from, to, new double[]{percentile}, maxPeaks)[0]; //mean is actually not an adequate description here
 		ndp.stddev = 0;
 		return ndp;
 	}
 
-	public static NormalDistributionParameters normalEstimate(Number[] values)
+	/**
+	 * Estimate several percentiles of the same values. The cut-offs are selected in ascending order and every
+	 * selection only partitions the values above the previous one.
+	 * @param values the values, they are reordered in place
+	 * @param percentiles percentiles (0-100)
+	 * @param maxPeaks every percentile is raised so that at most maxPeaks values are above it
+	 * @return the value of every percentile, in the order of the percentiles, null if there are no values
+	 */
+	public static double[] estimatePercentiles(double[] values, double[] percentiles, int maxPeaks)
 	{
-		NormalDistributionParameters ndp = new NormalDistributionParameters();
-		double sum1 = 0, sum2 = 0, sum3 = 0, sum4 = 0;
-		double n = values.length;
-		for (int i = 0; i < n; i++)
-			sum1 += values[i].doubleValue();
-		ndp.mean = sum1 / n;
+		return estimatePercentiles(values, 0, values.length, percentiles, maxPeaks);
+	}
 
-		for (int i = 0; i < n; i++){
-			sum2 += Math.pow(values[i].doubleValue() - ndp.mean, 2);
-		}
-		ndp.variance = sum2 / n;
-		ndp.stddev   = Math.sqrt(ndp.variance);
-
-		if(n > 5 && ndp.stddev > 0) {  // values below may cause crashes in LDA
-                  for (int i = 0; i < n; i++){
-                    sum3 += Math.pow(values[i].doubleValue() - ndp.mean, 3); // for skewness
-                    sum4 += Math.pow(values[i].doubleValue() - ndp.mean, 4); // for kurtosis
-                  }
-                  ndp.skewness = sum3 / (n * Math.pow(ndp.stddev, 3));
-                  ndp.kurtosis = sum4 / (n * Math.pow(ndp.stddev, 4));
-		}else{
-                  ndp.skewness = 0;
-                  ndp.kurtosis = 0;
+	/**
+	 * Estimate several percentiles of the values of a range of the array, see
+	 * estimatePercentiles(double[], double[], int).
+	 * @param values the array, only the range is reordered in place
+	 * @param from first position of the range
+	 * @param to position after the last one of the range
+	 * @param percentiles percentiles (0-100)
+	 * @param maxPeaks every percentile is raised so that at most maxPeaks values are above it
+	 * @return the value of every percentile, in the order of the percentiles, null if the range is empty
+	 */
+	public static double[] estimatePercentiles(double[] values, int from, int to, double[] percentiles, int maxPeaks)
+	{
+		int length = to - from;
+		if(length <= 0)
+			return null;
+
+		double[] result = new double[percentiles.length];
+		int[] indices = new int[percentiles.length];
+		for (int i = 0; i < percentiles.length; i++)
+		{
+			int index = (int)(length * percentiles[i] / 100);
+			if(index < length - maxPeaks) index = length - maxPeaks;
+			if(index < 0) index = 0;
+			if(index > length - 1) index = length - 1;
+			indices[i] = from + index;
 		}
 
-		return ndp;
+		int[] order = indices.clone();
+		Arrays.sort(order);
+		int start = from;
+		for (int index : order)
+		{
+			select(values, start, to, index);
+			start = index;
+		}
+		for (int i = 0; i < percentiles.length; i++)
+			result[i] = values[indices[i]];
+		return result;
 	}
 
-	public static NormalDistributionParameters normalEstimate(double[] values)
+	/**
+	 * Introselect: reorder values[from, to) so that values[k] is the value it would have if the range was sorted,
+	 * with the smaller values before it and the bigger ones after it. Quickselect with median of three pivots,
+	 * falling back to sorting the remaining range when the partitions do not shrink fast enough. The order is the
+	 * one of Double.compare, as in Arrays.sort.
+	 */
+	private static void select(double[] values, int from, int to, int k)
 	{
-		NormalDistributionParameters ndp = new NormalDistributionParameters();
-		double sum1 = 0, sum2 = 0, sum3 = 0, sum4 = 0;
-		double n = values.length;
-		for (int i = 0; i < n; i++)
-			sum1 += values[i];
-		ndp.mean = sum1 / n;
+		int lo = from, hi = to - 1;
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+		while (hi > lo)
+		{
+			if (depthLimit-- == 0)
+			{
+				Arrays.sort(values, lo, hi + 1);
+				return;
+			}
+			int middle = (lo + hi) >>> 1;
+			// median of three moved to hi as pivot
+			if (Double.compare(values[middle], values[lo]) < 0) swap(values, middle, lo);
+			if (Double.compare(values[hi], values[lo]) < 0) swap(values, hi, lo);
+			if (Double.compare(values[middle], values[hi]) < 0) swap(values, middle, hi);
+			double pivot = values[hi];
 
-		for (int i = 0; i < n; i++){
-			sum2 += Math.pow(values[i] - ndp.mean, 2);
-		}
-		ndp.variance = sum2 / n;
-		ndp.stddev   = Math.sqrt(ndp.variance);
-
-		if(n > 5 && ndp.stddev > 0) {  // values below may cause crashes in LDA
-                  for (int i = 0; i < n; i++){
-                    sum3 += Math.pow(values[i] - ndp.mean, 3); // for skewness
-                    sum4 += Math.pow(values[i] - ndp.mean, 4); // for kurtosis
-                  }
-                  ndp.skewness = sum3 / (n * Math.pow(ndp.stddev, 3));
-                  ndp.kurtosis = sum4 / (n * Math.pow(ndp.stddev, 4));
-		}else{
-                  ndp.skewness = 0;
-                  ndp.kurtosis = 0;
+			int store = lo;
+			for (int i = lo; i < hi; i++)
+			{
+				if (Double.compare(values[i], pivot) < 0)
+					swap(values, i, store++);
+			}
+			swap(values, store, hi);
+
+			// values equal to the pivot next to it are already in their place
+			int equalEnd = store;
+			while (equalEnd < hi && Double.compare(values[equalEnd + 1], pivot) == 0)
+				equalEnd++;
+
+			if (k < store)
+				hi = store - 1;
+			else if (k > equalEnd)
+				lo = equalEnd + 1;
+			else
+				return;
 		}
+	}
 
-		return ndp;
+	private static void swap(double[] values, int i, int j)
+	{
+		double value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+
+	public static NormalDistributionParameters normalEstimate(Number[] values)
+	{
+		MomentAccumulator moments = new MomentAccumulator();
+		for (Number value : values)
+			moments.add(value.doubleValue());
+		return moments.getParameters();
+	}
+
+	/**
+	 * Mean, standard deviation, skewness and kurtosis of the values in a single pass, see MomentAccumulator.
+	 * The skewness and kurtosis are 0 for 5 values or less or without variance (they may cause crashes in LDA).
+	 */
+	public static NormalDistributionParameters normalEstimate(double[] values)
+	{
+		MomentAccumulator moments = new MomentAccumulator();
+		moments.addAll(values);
+		return moments.getParameters();
+	}
+
+	public static NormalDistributionParameters normalEstimate(int[] values)
+	{
+		MomentAccumulator moments = new MomentAccumulator();
+		moments.addAll(values);
+		return moments.getParameters();
 	}
-        
 
 	public static NormalDistributionParameters robustEstimate(
 		Number[] values,
 		int maxDeleteCount,
 		double zLimit)
 	{
-		ArrayList list = new ArrayList();
-		list.addAll(Arrays.asList(values));
-		Collections.sort(list);
-		NormalDistributionParameters ndp;
+		double[] values2 = new double[values.length];
+		for (int i = 0; i < values.length; i++){values2[i] = values[i].doubleValue();}
+		return robustEstimate(values2, maxDeleteCount, zLimit);
+	}
+
+	/**
+	 * Estimate the normal distribution of the values after iteratively trimming the values further than zLimit
+	 * standard deviations from the mean, starting with the median. The values are sorted once and trimmed as a
+	 * window [lo, hi) of the sorted values; the mean and standard deviation of the window are updated in constant
+	 * time from prefix sums, and the full statistics are computed once on the final window.
+	 * @param values the values, they are not modified
+	 * @param maxDeleteCount the trimming stops when an iteration removes at most maxDeleteCount values
+	 * @param zLimit number of standard deviations from the mean kept
+	 * @return the NDP of the trimmed values, with NaN mean and standard deviation if no value is kept
+	 */
+	public static NormalDistributionParameters robustEstimate(
+		double[] values,
+		int maxDeleteCount,
+		double zLimit)
+	{
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int n = sorted.length;
+		if (n == 0)
+			return normalEstimate(sorted);
 
-		boolean iterate = true;
-		//ndp = normalEstimate((Number[]) list.toArray(new Number[0]));
 		// NEW 1-19-2004: start with median
-		ndp = estimateWithMedian((Number[])list.toArray(new Number[0]));
+		NormalDistributionParameters ndp = estimateWithMedian(sorted);
+		double mean = ndp.mean, stddev = ndp.stddev;
+
+		// prefix sums of the values centered on the median, to limit the cancellation in the variance
+		double center = ndp.mean;
+		double[] sum1 = new double[n + 1];
+		double[] sum2 = new double[n + 1];
+		for (int i = 0; i < n; i++)
+		{
+			double value = sorted[i] - center;
+			sum1[i + 1] = sum1[i] + value;
+			sum2[i + 1] = sum2[i] + value * value;
+		}
+
+		int lo = 0, hi = n;
+		boolean iterate = true;
 		while (iterate)
 		{
 			int removeCount = 0;
 
 			// remove peaks smaller than lower limit
-			while (list.size() > 0
-				&& ((Number) list.get(0)).doubleValue()
-					< ndp.mean - zLimit * ndp.stddev)
+			while (lo < hi && sorted[lo] < mean - zLimit * stddev)
 			{
-				list.remove(0);
+				lo++;
 				removeCount++;
 			}
 
 			// remove peaks bigger than upper limit
-			while (list.size() > 0
-				&& ((Number) list.get(list.size() - 1)).doubleValue()
-					> ndp.mean + zLimit * ndp.stddev)
+			while (lo < hi && sorted[hi - 1] > mean + zLimit * stddev)
 			{
-				list.remove(list.size() - 1);
+				hi--;
 				removeCount++;
 			}
 
@@ -183,8 +325,16 @@ public class RobustMath
 				iterate = true;
 			else
 				iterate = false;
-			ndp = normalEstimate((Number[]) list.toArray(new Number[0]));
+
+			// all the values are trimmed (zLimit 0 or below), there is nothing left to estimate
+			if (lo == hi)
+				break;
+
+			int count = hi - lo;
+			double shift = (sum1[hi] - sum1[lo]) / count;
+			mean = center + shift;
+			stddev = Math.sqrt(Math.max(0, (sum2[hi] - sum2[lo]) / count - shift * shift));
 		}
-		return ndp;
+		return normalEstimate(Arrays.copyOfRange(sorted, lo, hi));
 	}
 }
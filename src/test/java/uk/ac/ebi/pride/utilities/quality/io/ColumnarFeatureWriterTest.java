@@ -0,0 +1,110 @@
+package uk.ac.ebi.pride.utilities.quality.io;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeaturePlan;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureSchema;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureVector;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.SpectrumFeatureGenerator;
+import uk.ac.ebi.pride.utilities.quality.utils.PrideFeatureException;
+import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ColumnarFeatureWriterTest {
+
+    @org.junit.Test
+    public void testWriteAndAppend() throws Exception {
+        SpectrumFeatureGenerator generator = SpectrumFeatureGenerator.getInstance();
+        FeaturePlan plan = generator.createPlan(null, null);
+        FeatureSchema schema = generator.createSchema(plan, null);
+
+        List<String> ids = new ArrayList<String>();
+        List<Map<Integer, Map<SpectrumFeatureType, Object>>> rows = new ArrayList<Map<Integer, Map<SpectrumFeatureType, Object>>>();
+        IndexedMgfReader reader = new IndexedMgfReader(IndexedMgfReaderTest.copySmallMgf());
+        Iterator<SpectrumRecord> spectra = reader.iterator(0, 25);
+        while (spectra.hasNext()) {
+            SpectrumRecord spectrum = spectra.next();
+            ids.add(spectrum.getId());
+            rows.add(generator.computeFeatureForPeakList(spectrum.getPeaks(), spectrum.getCharge(), plan));
+        }
+        reader.close();
+
+        File file = File.createTempFile("features", ".qscf");
+        file.deleteOnExit();
+        ColumnarFeatureWriter writer = new ColumnarFeatureWriter(file, new String[]{"id"}, schema, false, 10);
+        for (int i = 0; i < 20; i++)
+            writer.write(new String[]{ids.get(i)}, rows.get(i));
+        writer.close();
+        writer = new ColumnarFeatureWriter(file, new String[]{"id"}, schema, true, 10);
+        for (int i = 20; i < rows.size(); i++)
+            writer.write(new String[]{ids.get(i)}, rows.get(i));
+        writer.close();
+
+        ColumnarFeatureReader columnarReader = new ColumnarFeatureReader(file);
+        assertEquals(schema, columnarReader.getSchema());
+        int row = 0;
+        int rowGroups = 0;
+        while (columnarReader.nextRowGroup()) {
+            rowGroups++;
+            for (int i = 0; i < columnarReader.getRowCount(); i++, row++) {
+                assertEquals(ids.get(row), columnarReader.getLeadingValue(0, i));
+                for (int slot = 0; slot < schema.size(); slot++) {
+                    Object value = rows.get(row).get(schema.getSubset(slot)).get(schema.getFeatureType(slot));
+                    double expected = (value != null) ? ((Number) value).doubleValue() : Double.NaN;
+                    assertEquals(schema.getColumnName(slot), expected, columnarReader.getColumn(slot)[i], 0);
+                }
+            }
+        }
+        columnarReader.close();
+        assertEquals(rows.size(), row);
+        assertEquals(3, rowGroups);
+
+        FeatureSchema other = generator.createSchema(plan, EnumSet.of(SpectrumFeatureType.XXArea));
+        try {
+            new ColumnarFeatureWriter(file, new String[]{"id"}, other, true).close();
+            fail("The columns of the file are not checked");
+        } catch (PrideFeatureException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The rows given as FeatureVector are read back with the missing features as NaN.
+     */
+    @org.junit.Test
+    public void testFeatureVectorRows() throws Exception {
+        FeatureSchema schema = new FeatureSchema(new int[]{1, 2},
+                new SpectrumFeatureType[]{SpectrumFeatureType.QUALSCORE_NUM_PEAKS, SpectrumFeatureType.QUALSCORE_NUM_PEAKS},
+                new ProcessingType[2]);
+        File file = File.createTempFile("features", ".qscf");
+        file.deleteOnExit();
+        ColumnarFeatureWriter writer = new ColumnarFeatureWriter(file, new String[]{"id"}, schema, false, 2);
+        FeatureVector features = new FeatureVector(schema);
+        for (int row = 0; row < 3; row++) {
+            features.clear();
+            features.set(1, SpectrumFeatureType.QUALSCORE_NUM_PEAKS, row * 10);
+            writer.write(new String[]{"spectrum" + row}, features);
+        }
+        writer.close();
+
+        ColumnarFeatureReader reader = new ColumnarFeatureReader(file);
+        assertEquals(schema, reader.getSchema());
+        int row = 0;
+        while (reader.nextRowGroup()) {
+            for (int i = 0; i < reader.getRowCount(); i++, row++) {
+                assertEquals("spectrum" + row, reader.getLeadingValue(0, i));
+                assertEquals(row * 10, reader.getColumn(0)[i], 0);
+                assertTrue(Double.isNaN(reader.getColumn(1)[i]));
+            }
+        }
+        reader.close();
+        assertEquals(3, row);
+    }
+}
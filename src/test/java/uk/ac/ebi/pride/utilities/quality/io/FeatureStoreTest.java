@@ -0,0 +1,212 @@
+package uk.ac.ebi.pride.utilities.quality.io;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeaturePlan;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureVector;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.SpectrumFeatureGenerator;
+import uk.ac.ebi.pride.utilities.quality.utils.PrideFeatureException;
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class FeatureStoreTest {
+
+    private static final int SPECTRA = 40;
+
+    private SpectrumFeatureGenerator generator;
+
+    private FeaturePlan plan;
+
+    private byte[][] keys;
+
+    private double[][] values;
+
+    @org.junit.Before
+    public void setUp() throws Exception {
+        generator = SpectrumFeatureGenerator.getInstance();
+        plan = generator.createPlan(null, null);
+        keys = new byte[SPECTRA][];
+        values = new double[SPECTRA][];
+        IndexedMgfReader reader = new IndexedMgfReader(IndexedMgfReaderTest.copySmallMgf());
+        for (int i = 0; i < SPECTRA; i++) {
+            SpectrumRecord spectrum = reader.getSpectrum(i);
+            FeatureVector features = new FeatureVector(plan.getSchema());
+            generator.computeFeatureVector(spectrum.getPeaks(), spectrum.getCharge(), plan, features);
+            keys[i] = FeatureStore.getKey(spectrum.getPeaks(), spectrum.getCharge());
+            values[i] = features.getValues().clone();
+        }
+        reader.close();
+    }
+
+    @org.junit.Test
+    public void testReopen() throws Exception {
+        File file = createTempFile();
+        FeatureStore store = open(file);
+        put(store, 0, 20);
+        put(store, 0, 20);
+        assertEquals(20, store.size());
+        store.close();
+        assertTrue(FeatureStore.getIndexFile(file).isFile());
+
+        store = open(file);
+        assertEquals(20, store.size());
+        check(store, 0, 20, true);
+        check(store, 20, SPECTRA, false);
+        store.close();
+    }
+
+    @org.junit.Test
+    public void testTruncatedRecord() throws Exception {
+        File file = createTempFile();
+        FeatureStore store = open(file);
+        put(store, 0, 20);
+        store.close();
+        long length = file.length();
+
+        // the process is stopped while a record is appended, after the index was saved
+        OutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[30]);
+        out.close();
+
+        store = open(file);
+        assertEquals(20, store.size());
+        assertEquals(length, file.length());
+        check(store, 0, 20, true);
+        put(store, 20, 21);
+        store.close();
+
+        store = open(file);
+        assertEquals(21, store.size());
+        check(store, 0, 21, true);
+        store.close();
+    }
+
+    @org.junit.Test
+    public void testStaleIndex() throws Exception {
+        File file = createTempFile();
+        FeatureStore store = open(file);
+        put(store, 0, 20);
+        store.close();
+        File staleIndex = createTempFile();
+        copy(FeatureStore.getIndexFile(file), staleIndex);
+
+        // a new store with other spectra, and the index of the old one
+        file.delete();
+        store = open(file);
+        put(store, 20, SPECTRA);
+        store.close();
+        copy(staleIndex, FeatureStore.getIndexFile(file));
+
+        store = open(file);
+        assertEquals(SPECTRA - 20, store.size());
+        check(store, 20, SPECTRA, true);
+        check(store, 0, 20, false);
+        store.close();
+
+        // records appended after the index was saved are read from the log
+        store = open(file);
+        put(store, 0, 5);
+        store.close();
+        copy(staleIndex, FeatureStore.getIndexFile(file));
+        store = open(file);
+        check(store, 0, 5, true);
+        check(store, 20, SPECTRA, true);
+        store.close();
+    }
+
+    @org.junit.Test
+    public void testMismatch() throws Exception {
+        File file = createTempFile();
+        FeatureStore store = open(file);
+        put(store, 0, 20);
+        store.close();
+        long length = file.length();
+
+        FeaturePlan otherPlan = generator.createPlan(Collections.singleton(SpectrumFeatureType.XXArea), null);
+        try {
+            new FeatureStore(file, otherPlan.getSchema(), SpectrumFeatureGenerator.FEATURE_VERSION);
+            fail("A store with other columns is opened");
+        } catch (PrideFeatureException e) {
+            // expected
+        }
+        try {
+            new FeatureStore(file, plan.getSchema(), SpectrumFeatureGenerator.FEATURE_VERSION + 1);
+            fail("A store with another version of the features is opened");
+        } catch (PrideFeatureException e) {
+            // expected
+        }
+        assertEquals(length, file.length());
+
+        store = open(file);
+        assertEquals(20, store.size());
+        check(store, 0, 20, true);
+        store.close();
+    }
+
+    @org.junit.Test
+    public void testNotAFeatureStore() throws Exception {
+        // files shorter than the header that are not its beginning: other magics, and the magic followed by the
+        // beginning of another format version
+        byte[][] contents = {"text".getBytes("US-ASCII"), {'Q', 'X'}, {'Q', 'S', 'F', 'X'}, {'Q', 'S', 'F', 'S', 0, 9}};
+        for (byte[] content : contents) {
+            File file = createTempFile();
+            OutputStream out = new FileOutputStream(file);
+            out.write(content);
+            out.close();
+            try {
+                open(file).close();
+                fail("A file that is not a feature store is opened");
+            } catch (PrideFeatureException e) {
+                assertEquals(file + " is not a feature store", e.getMessage());
+            }
+            assertEquals(content.length, file.length());
+        }
+    }
+
+    private FeatureStore open(File file) throws Exception {
+        return new FeatureStore(file, plan.getSchema(), SpectrumFeatureGenerator.FEATURE_VERSION);
+    }
+
+    private void put(FeatureStore store, int from, int to) throws Exception {
+        FeatureVector features = new FeatureVector(plan.getSchema());
+        for (int i = from; i < to; i++) {
+            System.arraycopy(values[i], 0, features.getValues(), 0, values[i].length);
+            store.put(keys[i], features);
+        }
+    }
+
+    private void check(FeatureStore store, int from, int to, boolean stored) throws Exception {
+        FeatureVector features = new FeatureVector(plan.getSchema());
+        for (int i = from; i < to; i++) {
+            assertEquals("Spectrum " + i, stored, store.get(keys[i], features));
+            if (stored)
+                assertTrue("Spectrum " + i, Arrays.equals(values[i], features.getValues()));
+        }
+    }
+
+    private static File createTempFile() throws Exception {
+        File file = File.createTempFile("features", ".qsfs");
+        file.delete();
+        file.deleteOnExit();
+        FeatureStore.getIndexFile(file).deleteOnExit();
+        return file;
+    }
+
+    private static void copy(File from, File to) throws Exception {
+        InputStream in = new FileInputStream(from);
+        OutputStream out = new FileOutputStream(to);
+        byte[] buffer = new byte[1 << 16];
+        int read;
+        while ((read = in.read(buffer)) > 0)
+            out.write(buffer, 0, read);
+        in.close();
+        out.close();
+    }
+}
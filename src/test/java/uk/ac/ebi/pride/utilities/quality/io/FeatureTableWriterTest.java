@@ -0,0 +1,47 @@
+package uk.ac.ebi.pride.utilities.quality.io;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureSchema;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureVector;
+import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+
+import java.io.StringWriter;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FeatureTableWriterTest {
+
+    /**
+     * The rows given as maps and as FeatureVector are written in the same way, the missing features are empty
+     * cells in both.
+     */
+    @org.junit.Test
+    public void testMissingFeatures() throws Exception {
+        FeatureSchema schema = new FeatureSchema(new int[]{1, 1, 2},
+                new SpectrumFeatureType[]{SpectrumFeatureType.XXArea, SpectrumFeatureType.QUALSCORE_NUM_PEAKS, SpectrumFeatureType.QUALSCORE_NUM_PEAKS},
+                new ProcessingType[3]);
+        FeatureVector features = new FeatureVector(schema);
+        features.set(1, SpectrumFeatureType.XXArea, 2.5);
+        features.set(2, SpectrumFeatureType.QUALSCORE_NUM_PEAKS, 40);
+
+        // the maps of the generator have all the features of the subset, the missing ones are null
+        Map<Integer, Map<SpectrumFeatureType, Object>> map = features.toMap();
+        map.get(1).put(SpectrumFeatureType.QUALSCORE_NUM_PEAKS, null);
+
+        StringWriter mapTable = new StringWriter();
+        FeatureTableWriter writer = new FeatureTableWriter(mapTable, new String[]{"id"}, null, null);
+        writer.write(new String[]{"spectrum"}, map);
+        writer.close();
+
+        StringWriter vectorTable = new StringWriter();
+        writer = new FeatureTableWriter(vectorTable, new String[]{"id"}, null, null);
+        writer.write(new String[]{"spectrum"}, features);
+        writer.close();
+
+        String expected = "id\tXXArea[1]\tQUALSCORE_NUM_PEAKS[1]\tQUALSCORE_NUM_PEAKS[2]\n"
+                + "spectrum\t2.5\t\t40.0\n";
+        assertEquals(expected, mapTable.toString());
+        assertEquals(expected, vectorTable.toString());
+    }
+}
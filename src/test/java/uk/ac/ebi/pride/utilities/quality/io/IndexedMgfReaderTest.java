@@ -0,0 +1,127 @@
+package uk.ac.ebi.pride.utilities.quality.io;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class IndexedMgfReaderTest {
+
+    @org.junit.Test
+    public void testReadClusterMgf() throws Exception {
+        IndexedMgfReader reader = new IndexedMgfReader(copySmallMgf());
+        int count = 0;
+        Iterator<SpectrumRecord> spectra = reader.iterator();
+        while (spectra.hasNext()) {
+            SpectrumRecord spectrum = spectra.next();
+            if (count == 0) {
+                assertEquals("cluster_id=49050,sequence=[MAGTAFDFENMKR]", spectrum.getId());
+                assertEquals(2, spectrum.getCharge());
+                assertEquals(759.8541, spectrum.getPeaks().getPrecursorMz(), 1E-9);
+                assertEquals(47, spectrum.getPeaks().size());
+                assertEquals(281.08, spectrum.getPeaks().getMz(0), 1E-9);
+                assertEquals(2.2219977780022226, spectrum.getPeaks().getIntensity(0), 1E-12);
+            }
+            count++;
+        }
+        reader.close();
+        assertEquals(1001, count);
+    }
+
+    @org.junit.Test
+    public void testReadUnsortedPeaks() throws Exception {
+        String mgf = "COM=test\n" +
+                "BEGIN IONS\n" +
+                "PEPMASS=500.5 1000\n" +
+                "CHARGE=3+\n" +
+                "300.1 10\n" +
+                "200.2\t20 1+\n" +
+                "END IONS\n" +
+                "BEGIN IONS\n" +
+                "PEPMASS=600.0\n" +
+                "END IONS\n";
+        File file = createTempFile(".mgf");
+        OutputStream out = new FileOutputStream(file);
+        out.write(mgf.getBytes("UTF-8"));
+        out.close();
+        IndexedMgfReader reader = new IndexedMgfReader(file);
+        assertEquals(2, reader.size());
+
+        SpectrumRecord first = reader.getSpectrum(0);
+        assertEquals("index=0", first.getId());
+        assertEquals(3, first.getCharge());
+        PeakList peaks = first.getPeaks();
+        assertEquals(500.5, peaks.getPrecursorMz(), 1E-9);
+        assertEquals(200.2, peaks.getMz(0), 1E-9);
+        assertEquals(20, peaks.getIntensity(0), 1E-9);
+        assertEquals(300.1, peaks.getMz(1), 1E-9);
+
+        SpectrumRecord second = reader.getSpectrum(1);
+        assertEquals("index=1", second.getId());
+        assertEquals(0, second.getCharge());
+        assertTrue(second.getPeaks().isEmpty());
+        reader.close();
+    }
+
+    @org.junit.Test
+    public void testSavedIndex() throws Exception {
+        File file = copySmallMgf();
+        IndexedMgfReader reader = new IndexedMgfReader(file);
+        assertTrue(IndexedMgfReader.getIndexFile(file).isFile());
+        assertEquals(1001, reader.size());
+        SpectrumRecord[] expected = new SpectrumRecord[reader.size()];
+        Iterator<SpectrumRecord> spectra = reader.iterator();
+        for (int i = 0; spectra.hasNext(); i++)
+            expected[i] = spectra.next();
+        reader.close();
+
+        // the saved index is used and the spectra can be read in any order
+        reader = new IndexedMgfReader(file);
+        assertEquals(1001, reader.size());
+        for (int i = reader.size() - 1; i >= 0; i--) {
+            SpectrumRecord spectrum = reader.getSpectrum(i);
+            assertEquals(expected[i].getId(), spectrum.getId());
+            assertEquals(expected[i].getCharge(), spectrum.getCharge());
+            assertEquals(expected[i].getPeaks().getPrecursorMz(), spectrum.getPeaks().getPrecursorMz(), 0);
+            assertTrue(Arrays.equals(expected[i].getPeaks().getMzArray(), spectrum.getPeaks().getMzArray()));
+            assertTrue(Arrays.equals(expected[i].getPeaks().getIntensityArray(), spectrum.getPeaks().getIntensityArray()));
+        }
+        assertEquals(reader.getSpectrum(500).getId(), reader.iterator(500, 501).next().getId());
+        reader.close();
+    }
+
+    /**
+     * Copy small.mgf to a temporary file, so its index is not saved next to the test resources.
+     */
+    static File copySmallMgf() throws Exception {
+        URL url = IndexedMgfReaderTest.class.getClassLoader().getResource("small.mgf");
+        if (url == null) {
+            throw new IllegalStateException("no file for input found!");
+        }
+        File file = createTempFile(".mgf");
+        InputStream in = new FileInputStream(new File(url.toURI()));
+        OutputStream out = new FileOutputStream(file);
+        byte[] buffer = new byte[1 << 16];
+        int read;
+        while ((read = in.read(buffer)) > 0)
+            out.write(buffer, 0, read);
+        in.close();
+        out.close();
+        return file;
+    }
+
+    private static File createTempFile(String suffix) throws Exception {
+        File file = File.createTempFile("small", suffix);
+        file.deleteOnExit();
+        IndexedMgfReader.getIndexFile(file).deleteOnExit();
+        return file;
+    }
+}
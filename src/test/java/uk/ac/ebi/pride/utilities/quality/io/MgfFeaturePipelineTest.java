@@ -0,0 +1,72 @@
+package uk.ac.ebi.pride.utilities.quality.io;
+
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeaturePlan;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.FeatureVector;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.SpectrumFeatureGenerator;
+import uk.ac.ebi.pride.utilities.quality.utils.PrideFeatureException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MgfFeaturePipelineTest {
+
+    @org.junit.Test
+    public void testRowOrder() throws Exception {
+        SpectrumFeatureGenerator generator = SpectrumFeatureGenerator.getInstance();
+        FeaturePlan plan = generator.createPlan(null, null);
+        IndexedMgfReader reader = new IndexedMgfReader(IndexedMgfReaderTest.copySmallMgf());
+
+        List<String> ids = new ArrayList<String>();
+        List<double[]> rows = new ArrayList<double[]>();
+        new MgfFeaturePipeline(generator, plan, 1).run(reader, collect(ids, rows));
+        assertEquals(reader.size(), ids.size());
+
+        List<String> parallelIds = new ArrayList<String>();
+        List<double[]> parallelRows = new ArrayList<double[]>();
+        new MgfFeaturePipeline(generator, plan, 3, 7).run(reader, collect(parallelIds, parallelRows));
+        reader.close();
+
+        assertEquals(ids, parallelIds);
+        for (int i = 0; i < rows.size(); i++)
+            assertTrue("Different features in row " + i, Arrays.equals(rows.get(i), parallelRows.get(i)));
+    }
+
+    @org.junit.Test
+    public void testWorkerFailure() throws Exception {
+        final AtomicInteger computed = new AtomicInteger();
+        SpectrumFeatureGenerator generator = new SpectrumFeatureGenerator() {
+            @Override
+            public void computeFeatureVector(PeakList peaks, int charge, FeaturePlan plan, FeatureVector features) {
+                if (computed.incrementAndGet() == 100)
+                    throw new PrideFeatureException("Wrong spectrum");
+                super.computeFeatureVector(peaks, charge, plan, features);
+            }
+        };
+        FeaturePlan plan = generator.createPlan(null, null);
+        IndexedMgfReader reader = new IndexedMgfReader(IndexedMgfReaderTest.copySmallMgf());
+        try {
+            new MgfFeaturePipeline(generator, plan, 3, 7).run(reader, collect(new ArrayList<String>(), new ArrayList<double[]>()));
+            fail("The error of the worker is not thrown by run");
+        } catch (PrideFeatureException e) {
+            assertEquals("Wrong spectrum", e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static MgfFeaturePipeline.RowHandler collect(final List<String> ids, final List<double[]> rows) {
+        return new MgfFeaturePipeline.RowHandler() {
+            @Override
+            public void handle(SpectrumRecord spectrum, FeatureVector features) throws IOException {
+                ids.add(spectrum.getId());
+                rows.add(features.getValues().clone());
+            }
+        };
+    }
+}
@@ -0,0 +1,93 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.common;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MassBinIndexTest {
+
+    /**
+     * The occupied bins, their rank and the counts of ranges are the ones of a plain array of bins, in sorted and
+     * unsorted m/z values.
+     */
+    @Test
+    public void testSameAsPlainBins() throws Exception {
+        Random random = new Random(19);
+        for (int test = 0; test < 200; test++) {
+            double[] mz = new double[1 + random.nextInt(300)];
+            double low = 100 + random.nextDouble() * 500;
+            // spectra of less than a word of bins up to several words
+            double width = random.nextInt(4) == 0 ? random.nextDouble() * 64 : random.nextDouble() * 2000;
+            for (int i = 0; i < mz.length; i++)
+                mz[i] = low + random.nextDouble() * width;
+            if (random.nextBoolean())
+                Arrays.sort(mz);
+
+            MassBinIndex index = new MassBinIndex(mz);
+            double min = mz[0], max = mz[0];
+            for (double value : mz) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            assertEquals((int) min, index.getStart());
+            assertEquals((int) (max + 1) - (int) min + 1, index.getLength());
+
+            boolean[] bins = new boolean[index.getLength()];
+            for (double value : mz)
+                bins[(int) (value - index.getStart())] = true;
+
+            int k = 0;
+            for (int bin = -2; bin < bins.length + 2; bin++) {
+                boolean occupied = bin >= 0 && bin < bins.length && bins[bin];
+                assertEquals("Bin " + bin, occupied, index.isOccupied(bin));
+                if (occupied)
+                    assertEquals(bin, index.getOccupiedBin(k++));
+            }
+            assertEquals(k, index.getOccupiedCount());
+
+            for (int range = 0; range < 100; range++) {
+                int from = random.nextInt(bins.length + 20) - 10;
+                int to = from + random.nextInt(200) - 20;
+                assertEquals("Bins " + from + " to " + to, count(bins, from, to), index.count(from, to));
+            }
+            assertEquals(k, index.count(0, bins.length - 1));
+            assertEquals(k, index.count(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void testWordBorders() throws Exception {
+        // bins 0, 63, 64, 127 and 128
+        MassBinIndex index = new MassBinIndex(new double[]{100.5, 163.2, 164.9, 227.0, 228.7});
+        assertEquals(100, index.getStart());
+        assertEquals(130, index.getLength());
+        assertEquals(5, index.getOccupiedCount());
+        assertEquals(2, index.count(63, 64));
+        assertEquals(1, index.count(1, 63));
+        assertEquals(3, index.count(64, 128));
+        assertEquals(2, index.count(127, 1000));
+        assertEquals(0, index.count(129, 1000));
+        assertEquals(0, index.count(64, 63));
+    }
+
+    @Test
+    public void testNoPeaks() throws Exception {
+        try {
+            new MassBinIndex(new double[0]);
+            fail("An index without peaks is created");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static int count(boolean[] bins, int from, int to) {
+        int count = 0;
+        for (int bin = Math.max(0, from); bin <= to && bin < bins.length; bin++)
+            if (bins[bin])
+                count++;
+        return count;
+    }
+}
@@ -0,0 +1,87 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.common;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PairSumHistogramTest {
+
+    /**
+     * Small spectra with narrow bins are counted from the pairs of peaks. The count of a pair depends on the bin
+     * of its sum, so it is between the pairs within the tolerance minus one bin and within the tolerance plus
+     * one bin.
+     */
+    @Test
+    public void testDirectCount() throws Exception {
+        check(new Random(3), 50, 0, 150, 0.01);
+    }
+
+    /**
+     * Large spectra with wide bins are counted with the FFT.
+     */
+    @Test
+    public void testConvolution() throws Exception {
+        check(new Random(5), 10, 1200, 1600, 1.0);
+    }
+
+    /**
+     * Unsorted m/z values give the same counts as the sorted ones.
+     */
+    @Test
+    public void testUnsortedPeaks() throws Exception {
+        Random random = new Random(13);
+        double[] mz = randomComplements(random, 200, 2000);
+        double[] sorted = mz.clone();
+        Arrays.sort(sorted);
+        for (double binWidth : new double[]{0.01, 1.0}) {
+            PairSumHistogram histogram = new PairSumHistogram(mz, binWidth, 1900, 2100);
+            PairSumHistogram sortedHistogram = new PairSumHistogram(sorted, binWidth, 1900, 2100);
+            for (double sum = 1950; sum <= 2050; sum += 5)
+                assertEquals(sortedHistogram.count(sum, 1.0), histogram.count(sum, 1.0), 0);
+        }
+    }
+
+    private static void check(Random random, int spectra, int minPeaks, int maxPeaks, double binWidth) {
+        for (int spectrum = 0; spectrum < spectra; spectrum++) {
+            double parentMass = 800 + random.nextDouble() * 1600;
+            double[] mz = randomComplements(random, minPeaks + random.nextInt(maxPeaks - minPeaks), parentMass);
+            Arrays.sort(mz);
+            PairSumHistogram histogram = new PairSumHistogram(mz, binWidth, parentMass - 41, parentMass + 1.5);
+            for (int i = 0; i <= 8; i++) {
+                for (double tolerance : new double[]{0.3, 0.5, 1.0}) {
+                    double sum = parentMass - i * 5;
+                    double count = histogram.count(sum, tolerance);
+                    String message = "Spectrum " + spectrum + " sum " + sum + " tolerance " + tolerance;
+                    assertTrue(message, count >= countPairs(mz, sum, tolerance - binWidth));
+                    assertTrue(message, count <= countPairs(mz, sum, tolerance + binWidth));
+                }
+            }
+        }
+    }
+
+    /**
+     * m/z values where some peaks are the complement of a previous one for the parent mass.
+     */
+    private static double[] randomComplements(Random random, int n, double parentMass) {
+        double[] mz = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && random.nextInt(3) == 0)
+                mz[i] = parentMass - mz[random.nextInt(i)] + random.nextGaussian();
+            else
+                mz[i] = 100 + random.nextDouble() * (parentMass - 100);
+        }
+        return mz;
+    }
+
+    private static double countPairs(double[] mz, double sum, double tolerance) {
+        double count = 0;
+        for (int i = 0; i < mz.length; i++)
+            for (int j = 0; j < mz.length; j++)
+                if (Math.abs(mz[i] + mz[j] - sum) <= tolerance)
+                    count++;
+        return count;
+    }
+}
@@ -0,0 +1,181 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.common;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpectrumUtilsTest {
+
+    /**
+     * argsort gives the positions of a stable sort, with NaN as the largest value, in both orders.
+     */
+    @Test
+    public void testArgsort() throws Exception {
+        Random random = new Random(5);
+        for (int test = 0; test < 200; test++) {
+            double[] values = new double[random.nextInt(100)];
+            for (int i = 0; i < values.length; i++) {
+                // few distinct values, so there are many ties
+                values[i] = random.nextInt(10) == 0 ? Double.NaN : random.nextInt(20);
+            }
+            assertArrayEquals(stableSort(values, false), SpectrumUtils.argsort(values, false));
+            assertArrayEquals(stableSort(values, true), SpectrumUtils.argsort(values, true));
+        }
+
+        double[] equal = {3, 3, 3, 3};
+        assertArrayEquals(new int[]{0, 1, 2, 3}, SpectrumUtils.argsort(equal, false));
+        assertArrayEquals(new int[]{0, 1, 2, 3}, SpectrumUtils.argsort(equal, true));
+
+        double[] reversed = {Double.NaN, 4, 3, 2, 1};
+        assertArrayEquals(new int[]{4, 3, 2, 1, 0}, SpectrumUtils.argsort(reversed, false));
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, SpectrumUtils.argsort(reversed, true));
+
+        // descending but not strictly: the equal values keep their order
+        double[] descending = {4, 3, 3, 1};
+        assertArrayEquals(new int[]{3, 1, 2, 0}, SpectrumUtils.argsort(descending, false));
+
+        assertArrayEquals(new int[0], SpectrumUtils.argsort(new double[0], false));
+    }
+
+    /**
+     * selectLargest gives the first k positions of the stable descending sort.
+     */
+    @Test
+    public void testSelectLargest() throws Exception {
+        Random random = new Random(9);
+        for (int test = 0; test < 200; test++) {
+            double[] values = new double[1 + random.nextInt(100)];
+            for (int i = 0; i < values.length; i++)
+                values[i] = random.nextInt(10) == 0 ? Double.NaN : random.nextInt(20);
+            int[] sorted = stableSort(values, true);
+            int k = random.nextInt(values.length + 1);
+            assertArrayEquals(Arrays.copyOf(sorted, k), SpectrumUtils.selectLargest(values, k));
+        }
+
+        double[] values = {2, Double.NaN, 7, 2, 5};
+        assertArrayEquals(new int[0], SpectrumUtils.selectLargest(values, 0));
+        assertArrayEquals(new int[0], SpectrumUtils.selectLargest(values, -1));
+        assertArrayEquals(new int[]{1, 2, 4, 0, 3}, SpectrumUtils.selectLargest(values, 5));
+        assertArrayEquals(new int[]{1, 2, 4, 0, 3}, SpectrumUtils.selectLargest(values, 10));
+        assertArrayEquals(new int[]{1, 2, 4, 0}, SpectrumUtils.selectLargest(values, 4));
+        assertArrayEquals(new int[]{0, 1, 2}, SpectrumUtils.selectLargest(new double[]{1, 1, 1, 1}, 3));
+    }
+
+    /**
+     * The sweep gives the same counts as the comparison of every pair of peaks, for the neutral losses, the
+     * background offset, and repeated or negative offsets.
+     */
+    @Test
+    public void testCountMassDifferences() throws Exception {
+        double[] offsets = {-40, 17, 18, 28, 17, -0.25};
+        Random random = new Random(7);
+        for (int spectrum = 0; spectrum < 200; spectrum++) {
+            double[] mz = randomSpectrum(random, offsets);
+            double[] counts = SpectrumUtils.countMassDifferences(mz, offsets, 0.5);
+            for (int k = 0; k < offsets.length; k++)
+                assertEquals("Spectrum " + spectrum + " offset " + offsets[k], countPairs(mz, offsets[k], 0.5), counts[k], 0);
+        }
+        assertArrayEquals(new double[]{0, 0}, SpectrumUtils.countMassDifferences(new double[0], new double[]{17, 18}, 0.5), 0);
+    }
+
+    /**
+     * The two pointers of every target give the same counts as the comparison of every pair of peaks, for the
+     * doubly (factor 1) and triply (factor 2) charged complements of a precursor and of the background precursors.
+     */
+    @Test
+    public void testCountComplementaryPairs() throws Exception {
+        Random random = new Random(11);
+        for (int spectrum = 0; spectrum < 200; spectrum++) {
+            double precursor = 400 + random.nextDouble() * 800;
+            double[] precursors = new double[9];
+            for (int i = 0; i < precursors.length; i++)
+                precursors[i] = precursor + (i == 0 ? 0 : (i - 4.5) * 10);
+            for (int factor = 1; factor <= 2; factor++) {
+                double[] targets = new double[precursors.length];
+                for (int i = 0; i < precursors.length; i++)
+                    targets[i] = precursors[i] * (factor + 1);
+                double[] mz = randomComplements(random, targets[0], factor);
+                double[] counts = SpectrumUtils.countComplementaryPairs(mz, factor, targets, 0.9);
+                for (int k = 0; k < targets.length; k++)
+                    assertEquals("Spectrum " + spectrum + " target " + targets[k], countComplements(mz, factor, targets[k], 0.9), counts[k], 0);
+            }
+        }
+        assertArrayEquals(new double[]{0}, SpectrumUtils.countComplementaryPairs(new double[0], 1, new double[]{1000}, 0.9), 0);
+    }
+
+    /**
+     * Sorted m/z values where some peaks are at one of the mass differences of a previous one.
+     */
+    private static double[] randomSpectrum(Random random, double[] differences) {
+        int n = random.nextInt(200);
+        double[] mz = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && random.nextInt(3) == 0)
+                mz[i] = mz[random.nextInt(i)] + differences[random.nextInt(differences.length)] + random.nextGaussian() * 0.3;
+            else
+                mz[i] = 100 + random.nextDouble() * 1900;
+        }
+        Arrays.sort(mz);
+        return mz;
+    }
+
+    /**
+     * Sorted m/z values where some peaks are the complement of a previous one for the target.
+     */
+    private static double[] randomComplements(Random random, double target, double factor) {
+        int n = random.nextInt(200);
+        double[] mz = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && random.nextInt(3) == 0)
+                mz[i] = (target - mz[random.nextInt(i)]) / factor + random.nextGaussian() * 0.5;
+            else
+                mz[i] = 100 + random.nextDouble() * 1900;
+        }
+        Arrays.sort(mz);
+        return mz;
+    }
+
+    private static double countComplements(double[] mz, double factor, double target, double tolerance) {
+        double count = 0;
+        for (int i = 0; i < mz.length; i++)
+            for (int j = 0; j < mz.length; j++)
+                if (Math.abs(mz[i] + factor * mz[j] - target) <= tolerance)
+                    count++;
+        return count;
+    }
+
+    /**
+     * Positions sorted with the stable sort of the collections.
+     */
+    private static int[] stableSort(final double[] values, final boolean revertOrder) {
+        List<Integer> positions = new ArrayList<Integer>();
+        for (int i = 0; i < values.length; i++)
+            positions.add(i);
+        Collections.sort(positions, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return revertOrder ? Double.compare(values[b], values[a]) : Double.compare(values[a], values[b]);
+            }
+        });
+        int[] index = new int[values.length];
+        for (int i = 0; i < index.length; i++)
+            index[i] = positions.get(i);
+        return index;
+    }
+
+    private static double countPairs(double[] mz, double offset, double tolerance) {
+        double count = 0;
+        for (int i = 0; i < mz.length; i++)
+            for (int j = 0; j < mz.length; j++)
+                if (Math.abs(mz[j] - mz[i] - offset) < tolerance)
+                    count++;
+        return count;
+    }
+}
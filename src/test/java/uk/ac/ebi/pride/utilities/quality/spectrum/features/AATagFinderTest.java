@@ -0,0 +1,115 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.features;
+
+import org.junit.Test;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.utils.Constants;
+import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AATagFinderTest {
+
+    private static final SpectrumFeatureType[] TYPES = {
+            SpectrumFeatureType.QUALSCORE_AA_MASS_DIFF,
+            SpectrumFeatureType.QUALSCORE_AA_MASS_ABUNDANCE_WEIGHTED,
+            SpectrumFeatureType.QUALSCORE_AA_MASS_TAG_AVG_LONGER,
+            SpectrumFeatureType.QUALSCORE_AA_MASS_TAG_LONGER};
+
+    private static final FeatureSchema SCHEMA = new FeatureSchema(new int[]{1, 1, 1, 1}, TYPES, new ProcessingType[4]);
+
+    /**
+     * A ladder of 6 peaks separated by Gly, Ala, Ser, Pro and Val, with peaks in between that are not at an amino
+     * acid distance of the ladder.
+     */
+    @Test
+    public void testKnownTag() throws Exception {
+        double[] mz = {300, 357.05, 428.13, 515.21, 612.33, 711.46, 330.5, 460.0, 900.0};
+        double[] intensity = {10, 20, 30, 40, 50, 60, 5, 5, 5};
+        PeakList peaks = new PeakList(mz, intensity, 800);
+
+        double[] values = compute(peaks);
+        assertEquals(6, values[3], 0);
+        assertArrayEquals(pairwiseSearch(peaks), values, 1E-12);
+    }
+
+    /**
+     * The search of the following peaks within an amino acid mass gives the values of the comparison of all the
+     * pairs of peaks.
+     */
+    @Test
+    public void testSameAsPairwiseSearch() throws Exception {
+        Random random = new Random(17);
+        for (int spectrum = 0; spectrum < 200; spectrum++) {
+            int n = 1 + random.nextInt(150);
+            double[] mz = new double[n];
+            double[] intensity = new double[n];
+            for (int i = 0; i < n; i++) {
+                // some peaks continue a ladder of amino acid masses, the other ones are anywhere
+                if (i > 0 && random.nextInt(3) == 0)
+                    mz[i] = mz[i - 1] + Constants.AAMasses[random.nextInt(Constants.AAMasses.length)] + random.nextGaussian() * 0.3;
+                else
+                    mz[i] = 100 + random.nextDouble() * 1900;
+                intensity[i] = random.nextDouble() * 1000;
+            }
+            PeakList peaks = new PeakList(mz, intensity, 1000);
+            double[] expected = pairwiseSearch(peaks);
+            double[] values = compute(peaks);
+            for (int k = 0; k < TYPES.length; k++)
+                assertEquals("Spectrum " + spectrum + " " + TYPES[k], expected[k], values[k], Math.abs(expected[k]) * 1E-12);
+        }
+    }
+
+    private static double[] compute(PeakList peaks) {
+        FeatureVector features = new FeatureVector(SCHEMA);
+        AATagFinder.getInstance().computeFeature(peaks, 2, features, 1);
+        return features.getValues().clone();
+    }
+
+    /**
+     * The comparison of every pair of peaks of the original implementation, with the amino acid masses walked in
+     * ascending order.
+     */
+    private static double[] pairwiseSearch(PeakList peaks) {
+        double[] aaMasses = Constants.AAMasses.clone();
+        Arrays.sort(aaMasses);
+        int n = peaks.size();
+        double[] count = new double[n];
+        List<List<Integer>> destinations = new ArrayList<List<Integer>>();
+        double result1_pos = 0, result1_tot = 0, result3 = 0, result2 = 0, result4_pos = 0, result4_tot = 0;
+        for (int i = 0; i < n; i++) {
+            destinations.add(new ArrayList<Integer>());
+            int aaIndex = 0;
+            for (int j = i + 1; j < n; j++) {
+                while (aaIndex != aaMasses.length - 1 && Math.abs(peaks.getMz(i) + aaMasses[aaIndex + 1] - peaks.getMz(j)) < Math.abs(peaks.getMz(i) + aaMasses[aaIndex] - peaks.getMz(j)))
+                    aaIndex++;
+                if (Math.abs(peaks.getMz(i) + aaMasses[aaIndex] - peaks.getMz(j)) < 0.7) {
+                    destinations.get(i).add(j);
+                    result1_pos += 1;
+                    result4_pos += peaks.getIntensity(i) * peaks.getIntensity(j);
+                }
+                result1_tot += 1;
+                result4_tot += peaks.getIntensity(i) * peaks.getIntensity(j);
+            }
+        }
+        for (int i = 0; i < n; i++) count[i] = 1;
+        for (int j = n - 2; j >= 0; j--) {
+            for (int dest : destinations.get(j)) {
+                if (count[j] < count[dest] + 1) {
+                    count[j] = count[dest] + 1;
+                    if (count[j] > result3) result3 = count[j];
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) result2 += count[i];
+        result2 /= n;
+        double result1 = result1_pos / (result1_tot + 1) * 10;
+        double result4 = (result4_pos / (result1_pos + 1)) / ((result4_tot / (result1_tot + 1)) + 1) * 10;
+        return new double[]{result1, result4, result2, result3};
+    }
+}
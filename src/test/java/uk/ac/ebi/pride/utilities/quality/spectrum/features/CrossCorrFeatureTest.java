@@ -0,0 +1,139 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.features;
+
+import org.junit.Test;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.MassBinIndex;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.utils.ProcessingType;
+import uk.ac.ebi.pride.utilities.quality.utils.SpectrumFeatureType;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CrossCorrFeatureTest {
+
+    /**
+     * The hits counted on the index for all the targets at once are the hits of the scan of every bin for every
+     * target.
+     */
+    @Test
+    public void testSameAsBinScan() throws Exception {
+        Random random = new Random(23);
+        for (int spectrum = 0; spectrum < 200; spectrum++) {
+            double precursor = 300 + random.nextDouble() * 1000;
+            double[] mz = randomSpectrum(random, precursor);
+            Arrays.sort(mz);
+
+            double[] targets = {precursor, precursor - 10, precursor + 25, precursor / 2, precursor * 3};
+            MassBinIndex index = new MassBinIndex(mz);
+            int start = (int) mz[0];
+            boolean[] peakThere = new boolean[(int) (mz[mz.length - 1] + 1) - start + 1];
+            for (double value : mz)
+                peakThere[(int) (value - start)] = true;
+
+            int[] single = CrossCorrFeature.getSingleHits(targets, index);
+            int[] doubly = CrossCorrFeature.getDoubleHits(targets, index);
+            int[] triply = CrossCorrFeature.getTripleHits(targets, index);
+            for (int t = 0; t < targets.length; t++) {
+                String message = "Spectrum " + spectrum + " target " + targets[t];
+                assertEquals(message, getSingleHits(targets[t], peakThere, start), single[t]);
+                assertEquals(message, getDoubleHits(targets[t], peakThere, start), doubly[t]);
+                assertEquals(message, getTripleHits(targets[t], peakThere, start), triply[t]);
+            }
+        }
+    }
+
+    /**
+     * Peak lists given in any order get the score of the sorted peaks.
+     */
+    @Test
+    public void testUnsortedPeaks() throws Exception {
+        FeatureSchema schema = new FeatureSchema(new int[]{1}, new SpectrumFeatureType[]{SpectrumFeatureType.QUALSCORE_CROSSCORR_B_Y_IONS}, new ProcessingType[1]);
+        Random random = new Random(29);
+        for (int spectrum = 0; spectrum < 50; spectrum++) {
+            double precursor = 300 + random.nextDouble() * 1000;
+            double[] mz = randomSpectrum(random, precursor);
+            // the score does not use the intensities
+            double[] intensity = new double[mz.length];
+            Arrays.fill(intensity, 1);
+            double[] sortedMz = mz.clone();
+            Arrays.sort(sortedMz);
+
+            for (int charge = 1; charge <= 3; charge++) {
+                FeatureVector features = new FeatureVector(schema);
+                CrossCorrFeature.getInstance().computeFeature(new PeakList(mz, intensity, precursor), charge, features, 1);
+                FeatureVector sortedFeatures = new FeatureVector(schema);
+                CrossCorrFeature.getInstance().computeFeature(new PeakList(sortedMz, intensity, precursor), charge, sortedFeatures, 1);
+                assertEquals(sortedFeatures.getValues()[0], features.getValues()[0], 0);
+            }
+        }
+    }
+
+    /**
+     * m/z values, some of them complementary to a previous one for a singly charged precursor.
+     */
+    private static double[] randomSpectrum(Random random, double precursor) {
+        double[] mz = new double[1 + random.nextInt(200)];
+        for (int i = 0; i < mz.length; i++) {
+            if (i > 0 && random.nextInt(3) == 0)
+                mz[i] = Math.max(50, precursor - mz[random.nextInt(i)] + random.nextGaussian() * 2);
+            else
+                mz[i] = 50 + random.nextDouble() * precursor * 2;
+        }
+        return mz;
+    }
+
+    private static int getSingleHits(double target, boolean[] peakThere, int start) {
+        int hits = 0;
+        for (int i = 0; i < peakThere.length; i++)
+            if (peakThere[i]) {
+                int mz = i + start;
+                int j = (int) (target - CrossCorrFeature.TOLERANCE - mz - start + 0.5);
+                if (j < 0) j = 0;
+                int endj = (int) (target + CrossCorrFeature.TOLERANCE - mz - start + 0.5);
+                if (endj >= peakThere.length) endj = peakThere.length - 1;
+                for (; j <= endj; j++)
+                    if (peakThere[j])
+                        hits++;
+            }
+        return hits;
+    }
+
+    private static int getDoubleHits(double target, boolean[] peakThere, int start) {
+        int hits = 0;
+        for (int i = 0; i < peakThere.length; i++)
+            if (peakThere[i]) {
+                double mass = (i + start) - 1;
+                double secondMz = ((target * 2 - 2) - mass) + 1;
+                if (anyPeak(peakThere, (int) (secondMz - CrossCorrFeature.TOLERANCE - start + 0.5), (int) (secondMz + CrossCorrFeature.TOLERANCE - start + 0.5))) {
+                    hits++;
+                    i++;
+                }
+            }
+        return hits;
+    }
+
+    private static int getTripleHits(double target, boolean[] peakThere, int start) {
+        int hits = 0;
+        for (int i = 0; i < peakThere.length; i++)
+            if (peakThere[i]) {
+                int mz = i + start;
+                double secondMass = (target * 3 - 3) - (mz - 1);
+                if (anyPeak(peakThere, (int) ((secondMass + 2) / 2.0 - CrossCorrFeature.TOLERANCE - start + 0.5), (int) ((secondMass + 2) / 2.0 + CrossCorrFeature.TOLERANCE - start + 0.5))) {
+                    hits++;
+                    i++;
+                }
+            }
+        return hits;
+    }
+
+    private static boolean anyPeak(boolean[] peakThere, int j, int endj) {
+        if (j < 0) j = 0;
+        if (endj >= peakThere.length) endj = peakThere.length - 1;
+        for (; j <= endj; j++)
+            if (peakThere[j])
+                return true;
+        return false;
+    }
+}
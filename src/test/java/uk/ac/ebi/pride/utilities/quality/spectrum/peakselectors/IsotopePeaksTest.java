@@ -0,0 +1,91 @@
+package uk.ac.ebi.pride.utilities.quality.spectrum.peakselectors;
+
+import org.junit.Test;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.PeakList;
+import uk.ac.ebi.pride.utilities.quality.spectrum.common.SpectrumUtils;
+import uk.ac.ebi.pride.utilities.quality.spectrum.features.SpectrumFeatureGenerator;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IsotopePeaksTest {
+
+    /**
+     * Peak lists of spectra that do not come from an MGF file are not sorted, the PeakList sorts them so the
+     * scores are the ones of the sorted peaks.
+     */
+    @Test
+    public void testUnsortedPeaks() throws Exception {
+        PeakList peaks = new PeakList(new double[]{500, 300, 301, 302, 100}, new double[]{10, 40, 20, 10, 5}, 600);
+        PeakList sorted = new PeakList(new double[]{100, 300, 301, 302, 500}, new double[]{5, 40, 20, 10, 10}, 600);
+        assertArrayEquals(sorted.getMzArray(), peaks.getMzArray(), 0);
+        assertArrayEquals(sorted.getIntensityArray(), peaks.getIntensityArray(), 0);
+
+        double[][] bins = {{5, 0, 0, 0}, {40, 20, 10, 0}, {20, 10, 0, 0}, {10, 0, 0, 0}, {10, 0, 0, 0}};
+        double[] scores = IsotopePeaks.computeScores(peaks);
+        assertEquals(peaks.size(), scores.length);
+        for (int i = 0; i < peaks.size(); i++) {
+            double[] ideal = new double[4];
+            IsotopePeaks.computePoisson(peaks.getMz(i), ideal);
+            assertEquals(IsotopePeaks.compareDistributions(ideal, bins[i]), scores[i], 0);
+        }
+    }
+
+    /**
+     * A spectrum of isotope clusters and noise peaks given in random order gets the scores and the features of the
+     * same spectrum given in m/z order.
+     */
+    @Test
+    public void testShuffledSpectrum() throws Exception {
+        Random random = new Random(31);
+        int clusters = 40, noise = 60;
+        double[] mz = new double[clusters * 3 + noise];
+        double[] intensity = new double[mz.length];
+        for (int c = 0; c < clusters; c++) {
+            double mass = 200 + random.nextDouble() * 1600;
+            double abundance = 100 + random.nextDouble() * 10000;
+            double[] ideal = new double[4];
+            IsotopePeaks.computePoisson(mass, ideal);
+            for (int k = 0; k < 3; k++) {
+                mz[c * 3 + k] = mass + k * 1.00335 + random.nextGaussian() * 0.01;
+                intensity[c * 3 + k] = abundance * ideal[k] * (0.9 + random.nextDouble() * 0.2);
+            }
+        }
+        for (int i = clusters * 3; i < mz.length; i++) {
+            mz[i] = 200 + random.nextDouble() * 1600;
+            intensity[i] = random.nextDouble() * 500;
+        }
+
+        int[] order = SpectrumUtils.argsort(mz, false);
+        double[] sortedMz = new double[mz.length];
+        double[] sortedIntensity = new double[mz.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedMz[i] = mz[order[i]];
+            sortedIntensity[i] = intensity[order[i]];
+        }
+
+        // the clusters and the noise are interleaved in the input
+        shuffle(random, mz, intensity);
+        PeakList peaks = new PeakList(mz, intensity, 700);
+        PeakList sorted = new PeakList(sortedMz, sortedIntensity, 700);
+        assertArrayEquals(sorted.getMzArray(), peaks.getMzArray(), 0);
+        assertArrayEquals(IsotopePeaks.computeScores(sorted), IsotopePeaks.computeScores(peaks), 0);
+
+        SpectrumFeatureGenerator generator = SpectrumFeatureGenerator.getInstance();
+        for (int charge = 1; charge <= 3; charge++)
+            assertEquals(generator.computeFeatureForPeakList(sorted, charge), generator.computeFeatureForPeakList(peaks, charge));
+    }
+
+    private static void shuffle(Random random, double[] mz, double[] intensity) {
+        for (int i = mz.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            double value = mz[i];
+            mz[i] = mz[j];
+            mz[j] = value;
+            value = intensity[i];
+            intensity[i] = intensity[j];
+            intensity[j] = value;
+        }
+    }
+}
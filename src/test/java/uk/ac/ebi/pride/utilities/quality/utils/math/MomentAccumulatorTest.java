@@ -0,0 +1,82 @@
+package uk.ac.ebi.pride.utilities.quality.utils.math;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MomentAccumulatorTest {
+
+    /**
+     * The single pass gives the statistics of the two passes, also for values far from 0.
+     */
+    @Test
+    public void testTwoPassEstimate() throws Exception {
+        Random random = new Random(7);
+        for (int test = 0; test < 200; test++) {
+            double[] values = new double[1 + random.nextInt(300)];
+            double offset = random.nextBoolean() ? 0 : 1E6;
+            for (int i = 0; i < values.length; i++)
+                values[i] = offset + random.nextGaussian() * 10 + (random.nextInt(20) == 0 ? random.nextDouble() * 200 : 0);
+
+            RobustMath.NormalDistributionParameters expected = RobustMathTest.twoPassEstimate(values);
+            MomentAccumulator moments = new MomentAccumulator();
+            moments.addAll(values);
+            assertEquals(values.length, moments.getCount());
+            RobustMath.NormalDistributionParameters ndp = moments.getParameters();
+            assertEquals(expected.mean, ndp.mean, Math.abs(expected.mean) * 1E-12);
+            assertEquals(expected.variance, ndp.variance, expected.variance * 1E-8);
+            assertEquals(expected.stddev, ndp.stddev, expected.stddev * 1E-8);
+            assertEquals(expected.skewness, ndp.skewness, 1E-6);
+            assertEquals(expected.kurtosis, ndp.kurtosis, 1E-6);
+
+            RobustMath.NormalDistributionParameters normal = RobustMath.normalEstimate(values);
+            assertEquals(ndp.mean, normal.mean, 0);
+            assertEquals(ndp.kurtosis, normal.kurtosis, 0);
+        }
+    }
+
+    /**
+     * Constant values have no variance, so the skewness and kurtosis are 0.
+     */
+    @Test
+    public void testConstantValues() throws Exception {
+        MomentAccumulator moments = new MomentAccumulator();
+        for (int i = 0; i < 10; i++)
+            moments.add(0.1);
+        assertEquals(0.1, moments.getMean(), 1E-15);
+        assertEquals(0, moments.getVariance(), 1E-30);
+        assertEquals(0, moments.getSkewness(), 0);
+        assertEquals(0, moments.getKurtosis(), 0);
+    }
+
+    /**
+     * 5 values or less have skewness and kurtosis 0, no values have NaN mean and variance.
+     */
+    @Test
+    public void testFewValues() throws Exception {
+        MomentAccumulator moments = new MomentAccumulator();
+        assertTrue(Double.isNaN(moments.getMean()));
+        assertTrue(Double.isNaN(moments.getVariance()));
+        assertEquals(0, moments.getSkewness(), 0);
+        assertEquals(0, moments.getKurtosis(), 0);
+
+        moments.addAll(new int[]{1, 2, 3, 4, 10});
+        assertEquals(4, moments.getMean(), 1E-12);
+        assertEquals(10, moments.getVariance(), 1E-12);
+        assertEquals(0, moments.getSkewness(), 0);
+        assertEquals(0, moments.getKurtosis(), 0);
+
+        moments.add(4);
+        assertTrue(moments.getSkewness() > 0);
+        assertTrue(moments.getKurtosis() > 0);
+
+        moments.clear();
+        assertEquals(0, moments.getCount());
+        assertTrue(Double.isNaN(moments.getMean()));
+        moments.add(2);
+        assertEquals(2, moments.getMean(), 0);
+        assertEquals(0, moments.getVariance(), 0);
+    }
+}
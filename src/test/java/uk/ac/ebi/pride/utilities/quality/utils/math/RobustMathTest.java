@@ -0,0 +1,211 @@
+package uk.ac.ebi.pride.utilities.quality.utils.math;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RobustMathTest {
+
+    /**
+     * The selected percentiles are the values at the same positions of the sorted values, for repeated
+     * percentiles, percentiles that give the same position and percentiles raised by maxPeaks.
+     */
+    @Test
+    public void testEstimatePercentiles() throws Exception {
+        double[] percentiles = {50, 10, 50, 90, 0, 100, 51, 99.9};
+        Random random = new Random(3);
+        for (int test = 0; test < 200; test++) {
+            double[] values = new double[1 + random.nextInt(100)];
+            for (int i = 0; i < values.length; i++)
+                values[i] = random.nextInt(4) == 0 ? random.nextInt(5) : random.nextGaussian() * 100;
+            int maxPeaks = random.nextBoolean() ? Integer.MAX_VALUE : random.nextInt(values.length + 2);
+
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            double[] result = RobustMath.estimatePercentiles(values.clone(), percentiles, maxPeaks);
+            for (int i = 0; i < percentiles.length; i++)
+                assertEquals(percentile(sorted, percentiles[i], maxPeaks), result[i], 0);
+
+            RobustMath.NormalDistributionParameters ndp = RobustMath.estimatePercentiles(values.clone(), 80, maxPeaks);
+            assertEquals(percentile(sorted, 80, maxPeaks), ndp.mean, 0);
+            assertEquals(0, ndp.stddev, 0);
+        }
+    }
+
+    /**
+     * Sorted, reversed and constant values, which are the worst cases of a quickselect.
+     */
+    @Test
+    public void testOrderedValues() throws Exception {
+        int n = 5000;
+        double[] ascending = new double[n], descending = new double[n], constant = new double[n];
+        for (int i = 0; i < n; i++) {
+            ascending[i] = i;
+            descending[i] = n - 1 - i;
+            constant[i] = 3;
+        }
+        double[] percentiles = {95, 5, 50, 50};
+        double[] expected = {4750, 250, 2500, 2500};
+        assertArrayEquals(expected, RobustMath.estimatePercentiles(ascending, percentiles, Integer.MAX_VALUE), 0);
+        assertArrayEquals(expected, RobustMath.estimatePercentiles(descending, percentiles, Integer.MAX_VALUE), 0);
+        assertArrayEquals(new double[]{3, 3, 3, 3}, RobustMath.estimatePercentiles(constant, percentiles, Integer.MAX_VALUE), 0);
+    }
+
+    /**
+     * maxPeaks raises the percentile so that at most maxPeaks values are above it.
+     */
+    @Test
+    public void testMaxPeaks() throws Exception {
+        double[] values = {9, 1, 8, 2, 7, 3, 6, 4, 5, 0};
+        assertArrayEquals(new double[]{7, 7, 9, 9}, RobustMath.estimatePercentiles(values.clone(), new double[]{0, 50, 100, 95}, 3), 0);
+        assertArrayEquals(new double[]{0, 5, 9, 9}, RobustMath.estimatePercentiles(values.clone(), new double[]{0, 50, 100, 95}, 10), 0);
+        assertArrayEquals(new double[]{9, 9}, RobustMath.estimatePercentiles(values.clone(), new double[]{0, 50}, 0), 0);
+        assertArrayEquals(new double[]{4, 4}, RobustMath.estimatePercentiles(new double[]{4, 4, 4}, new double[]{0, 100}, 1), 0);
+    }
+
+    /**
+     * Only the range is used and reordered, an empty range gives null.
+     */
+    @Test
+    public void testRange() throws Exception {
+        double[] values = {100, 9, 1, 8, 2, 7, 3, -100};
+        double[] result = RobustMath.estimatePercentiles(values, 1, 7, new double[]{0, 50, 99}, Integer.MAX_VALUE);
+        assertArrayEquals(new double[]{1, 7, 9}, result, 0);
+        assertEquals(100, values[0], 0);
+        assertEquals(-100, values[7], 0);
+        double[] inside = Arrays.copyOfRange(values, 1, 7);
+        Arrays.sort(inside);
+        assertArrayEquals(new double[]{1, 2, 3, 7, 8, 9}, inside, 0);
+
+        assertEquals(7, RobustMath.estimatePercentiles(values, 1, 7, 50, Integer.MAX_VALUE).mean, 0);
+        assertNull(RobustMath.estimatePercentiles(values, 3, 3, new double[]{50}, 10));
+        assertNull(RobustMath.estimatePercentiles(values, 3, 3, 50, 10));
+        assertNull(RobustMath.estimatePercentiles(new double[0], new double[]{50}, 10));
+        assertNull(RobustMath.estimatePercentiles(new double[0], 50, 10));
+    }
+
+    /**
+     * The trimmed window gives the estimate of trimming a sorted list one value at a time.
+     */
+    @Test
+    public void testRobustEstimate() throws Exception {
+        Random random = new Random(5);
+        for (int test = 0; test < 200; test++) {
+            double[] values = new double[1 + random.nextInt(200)];
+            for (int i = 0; i < values.length; i++) {
+                // a normal distribution with some outliers
+                values[i] = random.nextInt(10) == 0 ? random.nextDouble() * 1000 : 50 + random.nextGaussian() * 5;
+            }
+            double[] copy = values.clone();
+            int maxDeleteCount = random.nextInt(3);
+            double zLimit = 1 + random.nextDouble() * 2;
+            RobustMath.NormalDistributionParameters expected = trimmedEstimate(values, maxDeleteCount, zLimit);
+            RobustMath.NormalDistributionParameters ndp = RobustMath.robustEstimate(values, maxDeleteCount, zLimit);
+            assertArrayEquals(copy, values, 0);
+            assertEquals(expected.mean, ndp.mean, 1E-9);
+            assertEquals(expected.stddev, ndp.stddev, 1E-9);
+            assertEquals(expected.variance, ndp.variance, 1E-9);
+            assertEquals(expected.skewness, ndp.skewness, 1E-9);
+            assertEquals(expected.kurtosis, ndp.kurtosis, 1E-9);
+        }
+    }
+
+    /**
+     * Constant values are never trimmed, trimming all the values or no values give NaN.
+     */
+    @Test
+    public void testRobustEstimateLimits() throws Exception {
+        RobustMath.NormalDistributionParameters ndp = RobustMath.robustEstimate(new double[]{4, 4, 4, 4, 4, 4, 4}, 0, 2);
+        assertEquals(4, ndp.mean, 0);
+        assertEquals(0, ndp.stddev, 0);
+        assertEquals(0, ndp.skewness, 0);
+        assertEquals(0, ndp.kurtosis, 0);
+
+        // the median is 2.5 and a zLimit of 0 trims all the values
+        ndp = RobustMath.robustEstimate(new double[]{1, 2, 3, 4}, 0, 0);
+        assertTrue(Double.isNaN(ndp.mean));
+        assertTrue(Double.isNaN(ndp.stddev));
+
+        ndp = RobustMath.robustEstimate(new double[0], 0, 2);
+        assertTrue(Double.isNaN(ndp.mean));
+
+        ndp = RobustMath.robustEstimate(new Double[]{1.0, 2.0, 3.0, 100.0}, 0, 1);
+        assertEquals(RobustMath.robustEstimate(new double[]{1, 2, 3, 100}, 0, 1).mean, ndp.mean, 0);
+    }
+
+    /**
+     * Robust estimate as it was computed before the window: the values are removed from a sorted list and the
+     * estimate of the remaining values is computed in two passes after every iteration.
+     */
+    private static RobustMath.NormalDistributionParameters trimmedEstimate(double[] values, int maxDeleteCount, double zLimit) {
+        List<Double> list = new ArrayList<Double>();
+        for (double value : values)
+            list.add(value);
+        Collections.sort(list);
+        RobustMath.NormalDistributionParameters ndp = RobustMath.estimateWithMedian(toArray(list));
+        boolean iterate = true;
+        while (iterate) {
+            int removeCount = 0;
+            while (list.size() > 0 && list.get(0) < ndp.mean - zLimit * ndp.stddev) {
+                list.remove(0);
+                removeCount++;
+            }
+            while (list.size() > 0 && list.get(list.size() - 1) > ndp.mean + zLimit * ndp.stddev) {
+                list.remove(list.size() - 1);
+                removeCount++;
+            }
+            iterate = removeCount > maxDeleteCount;
+            ndp = twoPassEstimate(toArray(list));
+        }
+        return ndp;
+    }
+
+    private static double[] toArray(List<Double> list) {
+        double[] values = new double[list.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = list.get(i);
+        return values;
+    }
+
+    /**
+     * Mean, standard deviation, skewness and kurtosis computed with a pass for the mean and another one for the
+     * central moments.
+     */
+    static RobustMath.NormalDistributionParameters twoPassEstimate(double[] values) {
+        RobustMath.NormalDistributionParameters ndp = new RobustMath.NormalDistributionParameters();
+        double n = values.length, sum1 = 0, sum2 = 0, sum3 = 0, sum4 = 0;
+        for (double value : values)
+            sum1 += value;
+        ndp.mean = sum1 / n;
+        for (double value : values)
+            sum2 += Math.pow(value - ndp.mean, 2);
+        ndp.variance = sum2 / n;
+        ndp.stddev = Math.sqrt(ndp.variance);
+        if (n > 5 && ndp.stddev > 0) {
+            for (double value : values) {
+                sum3 += Math.pow(value - ndp.mean, 3);
+                sum4 += Math.pow(value - ndp.mean, 4);
+            }
+            ndp.skewness = sum3 / (n * Math.pow(ndp.stddev, 3));
+            ndp.kurtosis = sum4 / (n * Math.pow(ndp.stddev, 4));
+        }
+        return ndp;
+    }
+
+    /**
+     * Value at the percentile of the sorted values, as it was computed before the selection.
+     */
+    private static double percentile(double[] sorted, double percentile, int maxPeaks) {
+        int index = (int) (sorted.length * percentile / 100);
+        if (index < sorted.length - maxPeaks) index = sorted.length - maxPeaks;
+        if (index < 0) index = 0;
+        if (index > sorted.length - 1) index = sorted.length - 1;
+        return sorted[index];
+    }
+}